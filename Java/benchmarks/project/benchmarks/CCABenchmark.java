@@ -0,0 +1,65 @@
+package project.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import project.model.BoundingBox;
+import project.model.CCA;
+
+import java.awt.image.BufferedImage;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the stages of connected component analysis of a page.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(1)
+public class CCABenchmark {
+    @State(Scope.Thread)
+    public static class CollectInput {
+        CCA cca;
+        BufferedImage image;
+
+        @Setup(Level.Invocation)
+        public void setup(Page page) {
+            page.processUntil(4);
+            cca = new CCA();
+            image = Page.copy(page.images[4], BufferedImage.TYPE_INT_RGB);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ResolveInput {
+        CCA cca;
+        BufferedImage image;
+
+        @Setup(Level.Invocation)
+        public void setup(Page page) {
+            // resolving changes the labels, so they are collected again every time
+            page.processUntil(5);
+            cca = new CCA();
+            cca.collectComponents(Page.copy(page.images[4], BufferedImage.TYPE_INT_RGB));
+            image = Page.copy(page.images[5], BufferedImage.TYPE_INT_RGB);
+        }
+    }
+
+    @Benchmark
+    public CCA collectComponents(CollectInput input) {
+        input.cca.collectComponents(input.image);
+        return input.cca;
+    }
+
+    @Benchmark
+    public CCA resolveEquivalences(ResolveInput input) {
+        input.cca.resolveEquivalences(input.image);
+        return input.cca;
+    }
+
+    @Benchmark
+    public Map<Integer, BoundingBox> getBoundingBoxes(Page page) {
+        page.processUntil(6);
+        return page.cca.getBoundingBoxes();
+    }
+}
@@ -0,0 +1,285 @@
+package project.benchmarks;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import project.model.Pipeline;
+import project.model.StageMetrics;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Recognizes every page of a corpus of sheet music with the batch pipeline and
+ * reports the pages per second, the peak heap and the time of every stage, so
+ * that an optimization can be shown to speed the recognition up.
+ * <p>
+ * The notes of the MusicXML of every page are compared to golden note
+ * sequences recorded before, so that it can also be shown that the results
+ * are the same. It's run from the Java directory with
+ * <code>java -cp target/benchmarks.jar project.benchmarks.Corpus [-record] [-workers n] [-golden directory] [-output directory] [corpus]</code>,
+ * where <code>-record</code> writes the golden note sequences instead of
+ * comparing them, the golden directory is <code>benchmarks/golden</code> and
+ * the corpus <code>../sheetmusic</code> by default. The report is also written
+ * to <code>report.txt</code> in the output directory, with the MusicXML and the
+ * metrics of the pages.
+ * </p>
+ */
+public class Corpus {
+    // the image files read, PDF files are not
+    private static final Set<String> extensions = new HashSet<>(
+            Arrays.asList("png", "jpg", "jpeg", "gif", "bmp", "tif", "tiff"));
+
+    /**
+     * Run the corpus.
+     * @param args The command line arguments
+     * @throws Exception if the corpus cannot be run
+     */
+    public static void main(String[] args) throws Exception {
+        boolean record = false;
+        int workers = Runtime.getRuntime().availableProcessors();
+        File goldenDirectory = new File("benchmarks/golden");
+        File outputDirectory = null;
+        File corpus = new File("../sheetmusic");
+        for(int i=0; i<args.length; i++) {
+            if(args[i].equals("-record")) {
+                record = true;
+            } else if(args[i].equals("-workers") && i+1 < args.length) {
+                workers = Integer.parseInt(args[++i]);
+            } else if(args[i].equals("-golden") && i+1 < args.length) {
+                goldenDirectory = new File(args[++i]);
+            } else if(args[i].equals("-output") && i+1 < args.length) {
+                outputDirectory = new File(args[++i]);
+            } else if(!args[i].startsWith("-") && i == args.length-1) {
+                corpus = new File(args[i]);
+            } else {
+                System.err.println("Usage: Corpus [-record] [-workers n] [-golden directory] [-output directory] [corpus]");
+                System.exit(2);
+            }
+        }
+        if(outputDirectory == null) {
+            outputDirectory = Files.createTempDirectory("corpus").toFile();
+        }
+
+        List<File> inputs = new ArrayList<>();
+        listImages(corpus, inputs);
+
+        // decoding and writing are I/O bound, one worker is enough
+        Pipeline pipeline = new Pipeline();
+        pipeline.setWorkers(Pipeline.Stage.DESKEW, workers);
+        pipeline.setWorkers(Pipeline.Stage.LINE_REMOVAL, workers);
+        pipeline.setWorkers(Pipeline.Stage.CCA, workers);
+        pipeline.setWorkers(Pipeline.Stage.RECOGNITION, workers);
+        pipeline.setMetricsDirectory(new File(outputDirectory, "metrics"));
+
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for(MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if(pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        }
+        long time = -System.nanoTime();
+        List<Pipeline.Page> pages = pipeline.run(inputs, corpus, outputDirectory);
+        time += System.nanoTime();
+        // the pools don't peak at the same time, so this is an upper bound
+        long peakHeap = 0;
+        for(MemoryPoolMXBean pool : heapPools) {
+            peakHeap += pool.getPeakUsage().getUsed();
+        }
+
+        StringWriter report = new StringWriter();
+        PrintWriter out = new PrintWriter(report);
+        int recognized = 0;
+        int differences = 0;
+        // the total wall time, CPU time and allocated bytes of every stage
+        Map<Integer, String> descriptions = new TreeMap<>();
+        Map<Integer, long[]> totals = new TreeMap<>();
+        for(Pipeline.Page page : pages) {
+            String name = corpus.toPath().relativize(page.getInput().toPath()).toString();
+            List<String> notes;
+            if(page.getError() == null) {
+                recognized++;
+                notes = readNotes(page.getOutput());
+                for(StageMetrics metrics : page.getStageMetrics()) {
+                    descriptions.put(metrics.getStage(), metrics.getDescription());
+                    long[] total = totals.computeIfAbsent(metrics.getStage(), stage -> new long[3]);
+                    total[0] += metrics.getWallTime();
+                    total[1] += metrics.getCpuTime();
+                    total[2] += metrics.getAllocatedBytes();
+                }
+            } else {
+                // a page failing the same way is not a difference
+                notes = Collections.singletonList("failed: " + page.getError().getClass().getName());
+            }
+
+            File golden = new File(goldenDirectory, name + ".notes");
+            String status;
+            if(record) {
+                golden.getParentFile().mkdirs();
+                Files.write(golden.toPath(), notes, StandardCharsets.UTF_8);
+                status = "recorded";
+            } else if(!golden.isFile()) {
+                status = "no golden notes";
+                differences++;
+            } else {
+                status = compare(Files.readAllLines(golden.toPath(), StandardCharsets.UTF_8), notes);
+                if(status != null) {
+                    differences++;
+                } else {
+                    status = "same";
+                }
+            }
+            out.printf("%-60s %6d notes  %s%n", name,
+                    page.getError() == null ? notes.size() : 0,
+                    page.getError() == null ? status : status + " (" + page.getError() + ")");
+        }
+
+        out.println();
+        out.printf("%-40s %12s %12s %14s%n", "Stage", "Wall (ms)", "CPU (ms)", "Allocated (MB)");
+        for(Map.Entry<Integer, long[]> total : totals.entrySet()) {
+            out.printf("%-40s %12d %12d %14d%n", descriptions.get(total.getKey()),
+                    total.getValue()[0]/1000000, total.getValue()[1]/1000000, total.getValue()[2]/(1024*1024));
+        }
+        out.println();
+        out.printf("%d pages, %d recognized in %.1f s with %d workers: %.3f pages/s%n", pages.size(), recognized,
+                time/1e9, workers, pages.size()/(time/1e9));
+        out.printf("Peak heap: %d MB%n", peakHeap/(1024*1024));
+        if(!record) {
+            out.println(differences == 0 ? "All pages are the same as the golden notes"
+                    : differences + " pages differ from the golden notes");
+        }
+        out.flush();
+
+        System.out.println();
+        System.out.print(report);
+        Files.write(new File(outputDirectory, "report.txt").toPath(),
+                report.toString().getBytes(StandardCharsets.UTF_8));
+        System.exit(differences == 0 ? 0 : 1);
+    }
+
+    /**
+     * List the image files of a directory tree in the order of their paths.
+     * @param file The file or directory
+     * @param images The list the image files are added to
+     */
+    private static void listImages(File file, List<File> images) {
+        File[] files = file.listFiles();
+        if(files == null) {
+            String name = file.getName();
+            if(extensions.contains(name.substring(name.lastIndexOf('.')+1).toLowerCase(Locale.ROOT))) {
+                images.add(file);
+            }
+            return;
+        }
+        Arrays.sort(files);
+        for(File child : files) {
+            listImages(child, images);
+        }
+    }
+
+    /**
+     * Read the notes of a MusicXML file, one line per note with its measure,
+     * staff, voice, pitch or rest, type, dots and duration.
+     * @param xml The MusicXML file
+     * @return The notes in the order of the file
+     * @throws Exception if the file cannot be read
+     */
+    static List<String> readNotes(File xml) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        // don't fetch the MusicXML DTD
+        factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+        DocumentBuilder builder = factory.newDocumentBuilder();
+        Document document = builder.parse(xml);
+
+        List<String> notes = new ArrayList<>();
+        NodeList measures = document.getElementsByTagName("measure");
+        for(int i=0; i<measures.getLength(); i++) {
+            Element measure = (Element)measures.item(i);
+            NodeList measureNotes = measure.getElementsByTagName("note");
+            for(int j=0; j<measureNotes.getLength(); j++) {
+                Element note = (Element)measureNotes.item(j);
+                StringBuilder line = new StringBuilder();
+                line.append(measure.getAttribute("number"))
+                        .append('\t').append(getText(note, "staff"))
+                        .append('\t').append(getText(note, "voice"))
+                        .append('\t');
+                if(has(note, "chord")) {
+                    line.append('+');
+                }
+                if(has(note, "rest")) {
+                    line.append("rest");
+                } else {
+                    line.append(getText(note, "step"));
+                    String alter = getText(note, "alter");
+                    if(alter.equals("1")) {
+                        line.append('#');
+                    } else if(alter.equals("-1")) {
+                        line.append('b');
+                    }
+                    line.append(getText(note, "octave"));
+                }
+                line.append('\t').append(getText(note, "type"));
+                for(int k=0; k<note.getElementsByTagName("dot").getLength(); k++) {
+                    line.append('.');
+                }
+                line.append('\t').append(getText(note, "duration"));
+                notes.add(line.toString());
+            }
+        }
+        return notes;
+    }
+
+    /**
+     * Compare the notes of a page to its golden notes.
+     * @param golden The golden notes
+     * @param notes The notes of the page
+     * @return The first difference, or null if they are the same
+     */
+    private static String compare(List<String> golden, List<String> notes) {
+        for(int i=0; i<Math.min(golden.size(), notes.size()); i++) {
+            if(!golden.get(i).equals(notes.get(i))) {
+                return "differs at note " + (i+1) + ": expected \"" + golden.get(i) + "\" got \"" + notes.get(i) + "\"";
+            }
+        }
+        if(golden.size() != notes.size()) {
+            return "differs: expected " + golden.size() + " notes got " + notes.size();
+        }
+        return null;
+    }
+
+    /**
+     * Check if an element has a child element of a name.
+     * @param element The element
+     * @param name The name of the child
+     * @return True if it has one
+     */
+    private static boolean has(Element element, String name) {
+        return element.getElementsByTagName(name).getLength() > 0;
+    }
+
+    /**
+     * Get the text of the first child element of a name.
+     * @param element The element
+     * @param name The name of the child
+     * @return The text, or an empty string if there is no such child
+     */
+    private static String getText(Element element, String name) {
+        NodeList children = element.getElementsByTagName(name);
+        if(children.getLength() == 0) {
+            return "";
+        }
+        Node child = children.item(0);
+        return child.getTextContent().trim();
+    }
+}
@@ -0,0 +1,33 @@
+package project.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import project.model.Deskewing;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks deskewing a page.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(1)
+public class DeskewingBenchmark {
+    @State(Scope.Thread)
+    public static class Input {
+        Deskewing deskewing;
+
+        @Setup(Level.Invocation)
+        public void setup(Page page) {
+            deskewing = new Deskewing(page.images[0], page.staveLineThreshold);
+        }
+    }
+
+    @Benchmark
+    public BufferedImage deskew(Input input) {
+        input.deskewing.deskew();
+        return input.deskewing.getImage();
+    }
+}
@@ -0,0 +1,75 @@
+package project.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import project.model.LineRemoval;
+import project.model.Model;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the stages of line removal of a page, every invocation works on
+ * a new copy of the image as the stages change it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(1)
+public class LineRemovalBenchmark {
+    @State(Scope.Thread)
+    public static class StaveInput {
+        LineRemoval lineRemoval;
+        BufferedImage image;
+        int[] histogram;
+
+        @Setup(Level.Invocation)
+        public void setup(Page page) {
+            page.processUntil(1);
+            lineRemoval = new LineRemoval();
+            image = Page.copy(page.images[1], BufferedImage.TYPE_BYTE_BINARY);
+            histogram = Model.project(page.images[1], 'x');
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class VerticalLinesInput {
+        BufferedImage image;
+
+        @Setup(Level.Invocation)
+        public void setup(Page page) {
+            page.processUntil(2);
+            image = Page.copy(page.images[2], BufferedImage.TYPE_BYTE_BINARY);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class PatchInput {
+        BufferedImage image;
+
+        @Setup(Level.Invocation)
+        public void setup(Page page) {
+            page.processUntil(3);
+            image = Page.copy(page.images[3], BufferedImage.TYPE_BYTE_BINARY);
+        }
+    }
+
+    @Benchmark
+    public LineRemoval removeStave(Page page, StaveInput input) {
+        input.lineRemoval.removeStave(input.image, input.histogram, page.staveLineThreshold);
+        return input.lineRemoval;
+    }
+
+    @Benchmark
+    public BufferedImage removeVerticalLines(Page page, VerticalLinesInput input) {
+        // the lines of the previous invocation are forgotten first
+        page.lineRemoval.removeVerticalLines(input.image);
+        return input.image;
+    }
+
+    @Benchmark
+    public BufferedImage patch(Page page, PatchInput input) {
+        page.lineRemoval.patch(page.images[1], input.image);
+        return input.image;
+    }
+}
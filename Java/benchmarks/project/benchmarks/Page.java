@@ -0,0 +1,101 @@
+package project.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import project.model.*;
+import project.utils.ImageFile;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+
+/**
+ * A page whose stages of image processing are run the same way as in
+ * <code>Model.processImage</code>, so that every stage can be benchmarked on
+ * its real input. The stages are only run as far as a benchmark needs them.
+ * <p>
+ * The paths are relative to the Java directory, which the benchmarks must be
+ * run from so that the training set is found. Other images can be given with
+ * <code>-p image=path,...</code>, a page that a stage fails on makes the
+ * benchmarks of the later stages fail for that page.
+ * </p>
+ */
+@State(Scope.Benchmark)
+public class Page {
+    @Param({"../sheetmusic/simple/swan_lake.png", "../sheetmusic/simple/jingle-bells-melody.png",
+            "../sheetmusic/etude.png", "samples/AandS-0081.png", "samples/sailing.png"})
+    public String image;
+
+    // images[i] is the image after i stages
+    BufferedImage[] images = new BufferedImage[8];
+    int staveLineThreshold;
+    int stagesDone = 0;
+
+    // the stage objects after the stages done
+    LineRemoval lineRemoval;
+    CCA cca;
+
+    /**
+     * Read the image.
+     * @throws Exception if the image cannot be read
+     */
+    @Setup(Level.Trial)
+    public void load() throws Exception {
+        images[0] = new ImageFile(new File(image)).getBufferedImage(0, ImageFile.ReadMode.GRAY);
+        staveLineThreshold = images[0].getWidth()/2;
+        lineRemoval = new LineRemoval();
+        cca = new CCA();
+    }
+
+    /**
+     * Run the stages that have not been run yet.
+     * @param stages The number of stages that should be done
+     */
+    void processUntil(int stages) {
+        for(; stagesDone < stages; stagesDone++) {
+            BufferedImage image = copy(images[stagesDone],
+                    stagesDone < 4 ? BufferedImage.TYPE_BYTE_BINARY : BufferedImage.TYPE_INT_RGB);
+            switch(stagesDone) {
+                case 0:
+                    Deskewing deskewing = new Deskewing(images[0], staveLineThreshold);
+                    deskewing.deskew();
+                    image = deskewing.getImage();
+                    break;
+                case 1:
+                    lineRemoval.removeStave(image, Model.project(images[1], 'x'), staveLineThreshold);
+                    break;
+                case 2:
+                    lineRemoval.removeVerticalLines(image);
+                    break;
+                case 3:
+                    lineRemoval.patch(images[1], image);
+                    break;
+                case 4:
+                    cca.collectComponents(image);
+                    break;
+                case 5:
+                    cca.resolveEquivalences(image);
+                    break;
+                case 6:
+                    cca.getBoundingBoxes();
+                    cca.drawBoundingBoxes(image);
+                    break;
+            }
+            images[stagesDone+1] = image;
+        }
+    }
+
+    /**
+     * Copy an image, as done at the start of every stage.
+     * @param image The image
+     * @param imageType The type of the copy
+     * @return The copy
+     */
+    static BufferedImage copy(BufferedImage image, int imageType) {
+        BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), imageType);
+        for(int j=0; j<image.getHeight(); j++) {
+            for(int i=0; i<image.getWidth(); i++) {
+                copy.setRGB(i, j, image.getRGB(i, j));
+            }
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,26 @@
+package project.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import project.model.Model;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the projections of a page.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProjectionBenchmark {
+    @Benchmark
+    public int[] projectX(Page page) {
+        return Model.project(page.images[0], 'x');
+    }
+
+    @Benchmark
+    public int[] projectY(Page page) {
+        return Model.project(page.images[0], 'y');
+    }
+}
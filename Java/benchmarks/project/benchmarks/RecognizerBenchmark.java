@@ -0,0 +1,39 @@
+package project.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import project.model.Recognizer;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the symbol recognition of a page.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(1)
+public class RecognizerBenchmark {
+    @State(Scope.Thread)
+    public static class Input {
+        Recognizer recognizer;
+        BufferedImage image;
+
+        @Setup(Level.Invocation)
+        public void setup(Page page) {
+            page.processUntil(7);
+            // new bounding boxes, so that no subimage is cached from the previous invocation
+            recognizer = new Recognizer(page.lineRemoval.getStaves(), page.lineRemoval.getBarLines(),
+                    page.lineRemoval.getVerticalLines(), page.lineRemoval.getStaveSpaceWidth(),
+                    page.cca.getBoundingBoxes().values(), page.cca.getComponents());
+            image = Page.copy(page.images[7], BufferedImage.TYPE_INT_RGB);
+        }
+    }
+
+    @Benchmark
+    public Recognizer recognize(Page page, Input input) {
+        input.recognizer.recognize(input.image, page.images[4], page.images[1]);
+        return input.recognizer;
+    }
+}
@@ -2,9 +2,20 @@ package project;
 
 import project.controller.Controller;
 import project.model.Model;
+import project.model.Pipeline;
+import project.model.RasterStore;
+import project.model.Recognizer;
+import project.model.ResultCache;
+import project.model.StageSnapshot;
 import project.view.View;
 
 import javax.swing.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
 
 /**
  * A basic Java GUI application
@@ -35,8 +46,43 @@ public class Main extends JFrame
 	 */
 	private static final long serialVersionUID = -7026052166952174257L;
 
-	public static void main(String[] args)
+	// the maximum size of the result cache in bytes
+	private static final long resultCacheSize = 256L * 1024 * 1024;
+
+	/**
+	 * Start the GUI, or recognize several pages without it when run as
+	 * <code>Main -batch outputDirectory [-workers n] [-staveSpace s] [-skewEpsilon e] [-pyramid f] [-localDeskew true] [-parallelSystems true] [-rasterStore heap|direct|mapped] [-snapshots directory] [-metrics directory] [-cache directory] images...</code>,
+	 * where the images can be files or directories of files, <code>n</code> is
+	 * the number of workers of each image processing stage, <code>s</code> is
+	 * the stave space in pixels the pages are scaled down to, <code>e</code> is
+	 * the estimated skew in degrees under which pages are not deskewed,
+	 * <code>f</code> is the factor pages are downsampled by to search their
+	 * skew first, <code>-localDeskew true</code> straightens the staves of bent
+	 * pages one at a time, <code>-parallelSystems true</code> recognizes the
+	 * systems of a page at the same time, <code>-rasterStore</code> keeps the
+	 * images and components of the stages on the heap, in direct buffers or in
+	 * mapped temporary files, the snapshots directory receives the results of the
+	 * stages before symbol recognition, the metrics directory the time and
+	 * counts of the stages of each page and the cache directory keeps the
+	 * results of the pages already recognized. Symbol recognition can be run again on the snapshots with
+	 * <code>Main -recognize outputDirectory [-ratio r] [-tolerance t] [-parallelSystems true] snapshots...</code>.
+	 *
+	 * @param args
+	 *            the command line arguments
+	 * @throws InterruptedException
+	 *             if interrupted while recognizing the pages
+	 */
+	public static void main(String[] args) throws InterruptedException
 	{
+		if (args.length > 0 && args[0].equals("-batch"))
+		{
+			System.exit(batch(args));
+		}
+		if (args.length > 0 && args[0].equals("-recognize"))
+		{
+			System.exit(recognize(args));
+		}
+
 		SwingUtilities.invokeLater(new Runnable()
 		{
 			public void run()
@@ -51,4 +97,208 @@ public class Main extends JFrame
 
 	}
 
+	/**
+	 * Recognize the pages given on the command line.
+	 *
+	 * @param args
+	 *            the command line arguments
+	 * @return the exit status, 0 if all pages were recognized
+	 * @throws InterruptedException
+	 *             if interrupted while recognizing the pages
+	 */
+	private static int batch(String[] args) throws InterruptedException
+	{
+		if (args.length < 3)
+		{
+			System.err.println(
+					"Usage: Main -batch outputDirectory [-workers n] [-staveSpace s] [-skewEpsilon e] [-pyramid f] [-localDeskew true] [-parallelSystems true] [-rasterStore heap|direct|mapped] [-snapshots directory] [-metrics directory] [-cache directory] images...");
+			return 2;
+		}
+		File outputDirectory = new File(args[1]);
+		outputDirectory.mkdirs();
+
+		Pipeline pipeline = new Pipeline();
+		int first = 2;
+		while (first < args.length - 2 && args[first].startsWith("-"))
+		{
+			if (args[first].equals("-workers"))
+			{
+				// decoding and writing are I/O bound, one worker is enough
+				int workers = Integer.parseInt(args[first + 1]);
+				pipeline.setWorkers(Pipeline.Stage.DESKEW, workers);
+				pipeline.setWorkers(Pipeline.Stage.LINE_REMOVAL, workers);
+				pipeline.setWorkers(Pipeline.Stage.CCA, workers);
+				pipeline.setWorkers(Pipeline.Stage.RECOGNITION, workers);
+			}
+			else if (args[first].equals("-staveSpace"))
+			{
+				pipeline.setTargetStaveSpace(Integer.parseInt(args[first + 1]));
+			}
+			else if (args[first].equals("-skewEpsilon"))
+			{
+				pipeline.setSkewEpsilon(Double.parseDouble(args[first + 1]));
+			}
+			else if (args[first].equals("-pyramid"))
+			{
+				pipeline.setDeskewPyramidFactor(Integer.parseInt(args[first + 1]));
+			}
+			else if (args[first].equals("-localDeskew"))
+			{
+				pipeline.setLocalDeskew(Boolean.parseBoolean(args[first + 1]));
+			}
+			else if (args[first].equals("-parallelSystems"))
+			{
+				pipeline.setParallelSystems(Boolean.parseBoolean(args[first + 1]));
+			}
+			else if (args[first].equals("-rasterStore"))
+			{
+				pipeline.setRasterStoreBackend(RasterStore.Backend
+						.valueOf(args[first + 1].toUpperCase(Locale.ROOT)));
+			}
+			else if (args[first].equals("-snapshots"))
+			{
+				File snapshotDirectory = new File(args[first + 1]);
+				snapshotDirectory.mkdirs();
+				pipeline.setSnapshotDirectory(snapshotDirectory);
+			}
+			else if (args[first].equals("-metrics"))
+			{
+				File metricsDirectory = new File(args[first + 1]);
+				metricsDirectory.mkdirs();
+				pipeline.setMetricsDirectory(metricsDirectory);
+			}
+			else if (args[first].equals("-cache"))
+			{
+				pipeline.setResultCache(new ResultCache(
+						new File(args[first + 1]), resultCacheSize));
+			}
+			else
+			{
+				System.err.println("Unknown option " + args[first]);
+				return 2;
+			}
+			first += 2;
+		}
+
+		List<File> inputs = listFiles(args, first);
+
+		int failed = 0;
+		for (Pipeline.Page page : pipeline.run(inputs, outputDirectory))
+		{
+			if (page.getError() == null)
+			{
+				System.out.println(page.getInput() + " -> " + page.getOutput()
+						+ (page.isCached() ? " (cached)" : ""));
+			}
+			else
+			{
+				System.out.println(page.getInput() + ": " + page.getError());
+				failed++;
+			}
+		}
+		return failed == 0 ? 0 : 1;
+	}
+
+	/**
+	 * Recognize the symbols of the snapshots given on the command line again.
+	 *
+	 * @param args
+	 *            the command line arguments
+	 * @return the exit status, 0 if all snapshots were recognized
+	 */
+	private static int recognize(String[] args)
+	{
+		if (args.length < 3)
+		{
+			System.err.println(
+					"Usage: Main -recognize outputDirectory [-ratio r] [-tolerance t] [-parallelSystems true] snapshots...");
+			return 2;
+		}
+		File outputDirectory = new File(args[1]);
+		outputDirectory.mkdirs();
+
+		Double ratioOfPixelsThreshold = null;
+		Integer tolerance = null;
+		boolean parallelSystems = false;
+		int first = 2;
+		while (first < args.length - 2 && args[first].startsWith("-"))
+		{
+			if (args[first].equals("-ratio"))
+			{
+				ratioOfPixelsThreshold = Double.parseDouble(args[first + 1]);
+			}
+			else if (args[first].equals("-tolerance"))
+			{
+				tolerance = Integer.parseInt(args[first + 1]);
+			}
+			else if (args[first].equals("-parallelSystems"))
+			{
+				parallelSystems = Boolean.parseBoolean(args[first + 1]);
+			}
+			else
+			{
+				System.err.println("Unknown option " + args[first]);
+				return 2;
+			}
+			first += 2;
+		}
+
+		int failed = 0;
+		for (File input : listFiles(args, first))
+		{
+			String name = input.getName();
+			if (name.lastIndexOf('.') > 0)
+				name = name.substring(0, name.lastIndexOf('.'));
+			File output = new File(outputDirectory, name + ".xml");
+			try
+			{
+				Recognizer recognizer = StageSnapshot.read(input)
+						.createRecognizer();
+				if (ratioOfPixelsThreshold != null)
+					recognizer.setRatioOfPixelsThreshold(ratioOfPixelsThreshold);
+				if (tolerance != null)
+					recognizer.setTolerance(tolerance);
+				recognizer.setParallelSystems(parallelSystems);
+				recognizer.recognize();
+				recognizer.generateXML(output);
+				System.out.println(input + " -> " + output);
+			}
+			catch (IOException | RuntimeException e)
+			{
+				System.out.println(input + ": " + e);
+				failed++;
+			}
+		}
+		return failed == 0 ? 0 : 1;
+	}
+
+	/**
+	 * List the files given on the command line, the files of a directory
+	 * are listed in the order of their names.
+	 *
+	 * @param args
+	 *            the command line arguments
+	 * @param first
+	 *            the index of the first file
+	 * @return the files
+	 */
+	private static List<File> listFiles(String[] args, int first)
+	{
+		List<File> inputs = new ArrayList<>();
+		for (int i = first; i < args.length; i++)
+		{
+			File input = new File(args[i]);
+			File[] files = input.listFiles(File::isFile);
+			if (files != null)
+			{
+				Arrays.sort(files);
+				inputs.addAll(Arrays.asList(files));
+			}
+			else
+			{
+				inputs.add(input);
+			}
+		}
+		return inputs;
+	}
 }
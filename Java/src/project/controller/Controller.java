@@ -1,13 +1,14 @@
 package project.controller;
 
 import project.model.Model;
+import project.model.ProgressListener;
 import project.utils.UnsupportedImageTypeException;
 import project.view.View;
 
+import javax.swing.SwingUtilities;
 import java.awt.Rectangle;
 import java.io.File;
 import java.io.IOException;
-import java.util.List;
 
 /**
  * Recall that the controller and related classes in the controller package are
@@ -94,65 +95,19 @@ public class Controller
 	}
 
 	/**
-	 * This dummy method demonstrates how to implement a long running operation.
-	 * The return value for this example is always the percentage done. The
-	 * results and partial results are passed by reference parameters. In this
-	 * case the final result is supposed to be an integer (the number of
-	 * rectangles in the model), the partial results are the values of
-	 * percentageDone. For a real application, the partial results could be the
-	 * rows of data read from a database and the final result could be the last
-	 * row. Or the final result could be the output of a calculation and there
-	 * might be no partial results.
+	 * Go to the next step of image processing. This is a long running
+	 * operation: it should not be called on the Swing Event Dispatch Thread.
+	 * The view is repainted on the Event Dispatch Thread once the step is
+	 * finished.
 	 *
-	 * @param result
-	 * 	          the final result returned to the caller
-	 * @param partialResults
-	 *            the partial results to be reported to the caller
-	 * @return the percentage of the work done
-	 * @throws InterruptedException
-	 * 			  if the sleep is interrupted
+	 * @param listener
+	 *            the listener notified of the progress of the step, or null
+	 * @throws java.util.concurrent.CancellationException
+	 *             if the thread running the step is interrupted
 	 */
-	public int executeLongOpStep(Integer[] result, List<Integer> partialResults)
-			throws InterruptedException
-	{
-		// simulate doing some work by going to sleep for 50 milliseconds.
-		//Thread.sleep(50);
-
-		int currentPercentageDone = percentageDone.get() + 1;
-		percentageDone.set(currentPercentageDone);
-		if (currentPercentageDone < 100)
-			partialResults.add(currentPercentageDone);
-		else
-			result[0] = model.getRects().size();
-		return currentPercentageDone;
-	}
-
-	/**
-	 * This is used by the dummy <code>executeLongOperationStep</code> method.
-	 * Normally this would be just an integer field variable. However, if the
-	 * operation is configured in the view action so that multiple instances the
-	 * long operation can run in parallel, then you need you ensure that
-	 * variables that persist over multiple steps of the method are local to the
-	 * thread. If, instead, you disallow such parallelism, e.g. by disabling
-	 * further invocations of the action while one instance is running, or by
-	 * making the dialog modal (which has the same effect, then this can be a
-	 * normal class field.
-	 */
-	private static ThreadLocal<Integer> percentageDone = new ThreadLocal<Integer>()
-	{
-		@Override
-		protected Integer initialValue()
-		{
-			return 0;
-		}
-	};
-
-	/**
-	 * Go to the next step of image processing.
-	 */
-	public void processImage() {
-		model.processImage();
-		view.repaint();
+	public void processImage(ProgressListener listener) {
+		model.processImage(listener);
+		SwingUtilities.invokeLater(() -> view.repaint());
 	}
 
 	/**
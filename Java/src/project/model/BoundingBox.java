@@ -16,7 +16,7 @@ public class BoundingBox {
     // the label assigned by CCA
     public int label;
 
-    // subimage cache for speed-up
+    // subimage cache for speed-up, made when the first subimage is asked for
     private Map<BufferedImage, BufferedImage> imageCache;
 
     /**
@@ -31,7 +31,6 @@ public class BoundingBox {
         this.yStart = yStart;
         this.xEnd = xEnd;
         this.yEnd = yEnd;
-        imageCache = new HashMap<>();
     }
 
     /**
@@ -80,23 +79,26 @@ public class BoundingBox {
     }
 
     /**
-     * Get the subimage
+     * Get the subimage, systems recognized at the same time may share a component
      * @param image The image to extract the subimage from
      * @param components The label matrix
      * @return The subimage
      */
-    public BufferedImage getImage(BufferedImage image, int[][] components) {
+    public synchronized BufferedImage getImage(BufferedImage image, LabelMatrix components) {
+        if(imageCache == null) {
+            imageCache = new HashMap<>();
+        }
         if(imageCache.containsKey(image)) {
             return imageCache.get(image);
         }
 
         BufferedImage subimage = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_BYTE_BINARY);
-        for(int i=0; i<subimage.getWidth(); i++) {
-            for(int j=0; j<subimage.getHeight(); j++) {
-                if(components[i+xStart][j+yStart] == label) {
-                    subimage.setRGB(i, j, ColorOperations.black());
+        for(int j=0; j<subimage.getHeight(); j++) {
+            for(int i=0; i<subimage.getWidth(); i++) {
+                if(components.get(i+xStart, j+yStart) == label) {
+                    subimage.setRGB(i, j, ColorOperations.BLACK);
                 } else {
-                    subimage.setRGB(i, j, ColorOperations.white());
+                    subimage.setRGB(i, j, ColorOperations.WHITE);
                 }
             }
         }
@@ -7,9 +7,66 @@ import java.util.*;
  * Performs Connected Component Analysis.
  */
 public class CCA {
-    private int[][] components;
+    /**
+     * Decides from its bounds if a component gets a bounding box.
+     */
+    public interface ComponentFilter {
+        /**
+         * Check if a component is kept.
+         * @param xStart The left x coordinate
+         * @param yStart The top y coordinate
+         * @param xEnd The right x coordinate
+         * @param yEnd The bottom y coordinate
+         * @return True if it gets a bounding box
+         */
+        boolean accept(int xStart, int yStart, int xEnd, int yEnd);
+    }
+
+    private LabelMatrix components;
     ArrayList<Set<Integer>> labelEquivalence;
     Map<Integer, BoundingBox> labelToBoundingBox;
+    // the bounds of the components filtered out, four values each, drawn so that they stay marked
+    private int[] rejectedBounds = new int[0];
+    private RasterStore rasterStore;
+    private ComponentFilter componentFilter;
+    private Progress progress = new Progress(null);
+
+    // counts for the metrics
+    private int labelsCreated;
+    private int equivalenceMerges;
+    private int componentsFiltered;
+
+    /**
+     * Create a new instance that keeps the component matrix on the heap.
+     */
+    public CCA() {
+        this(new RasterStore(RasterStore.Backend.HEAP));
+    }
+
+    /**
+     * Create a new instance.
+     * @param rasterStore The store creating the component matrix
+     */
+    public CCA(RasterStore rasterStore) {
+        this.rasterStore = rasterStore;
+    }
+
+    /**
+     * Set which components get a bounding box, the others are left in the component
+     * matrix but no bounding box is made for them.
+     * @param componentFilter The filter, or null to keep every component
+     */
+    public void setComponentFilter(ComponentFilter componentFilter) {
+        this.componentFilter = componentFilter;
+    }
+
+    /**
+     * Set where the progress is reported.
+     * @param progress The progress
+     */
+    public void setProgress(Progress progress) {
+        this.progress = progress;
+    }
 
     /**
      * Label components.
@@ -17,48 +74,49 @@ public class CCA {
      */
     public void collectComponents(BufferedImage image) {
         // initialize the component matrix
-        components = new int[image.getWidth()][image.getHeight()];
-        for(int i=0; i<components.length; i++) {
-            for(int j=0; j<components[i].length; j++) {
-                components[i][j] = 0;
-            }
-        }
+        components = rasterStore.createLabelMatrix(image.getWidth(), image.getHeight());
 
         // label the components
         int label = 1;
         labelEquivalence = new ArrayList<>();
+        equivalenceMerges = 0;
+        progress.setTask("Collecting components");
         for(int j=1; j<image.getHeight()-1; j++) {
+            progress.update(j, image.getHeight()-1);
             for(int i=1; i<image.getWidth()-1; i++) {
-                if(image.getRGB(i, j) == ColorOperations.black()) {
+                if(image.getRGB(i, j) == ColorOperations.BLACK) {
                     int smallestLabel = label;
                     boolean newLabelNeeded = true;
 
                     // check if connected and find the smallest label in the mask
                     for(int k=-1; k<=1; k++) {
                         for(int l=-1; l<=0; l++) {
-                            if(components[i+k][j+l] != 0) {
+                            int neighbourLabel = components.get(i+k, j+l);
+                            if(neighbourLabel != 0) {
                                 newLabelNeeded = false;
-                                if(components[i+k][j+l] < smallestLabel) {
-                                    smallestLabel = components[i + k][j + l];
+                                if(neighbourLabel < smallestLabel) {
+                                    smallestLabel = neighbourLabel;
                                 }
                             }
                         }
                     }
-                    components[i][j] = smallestLabel;
+                    components.set(i, j, smallestLabel);
 
                     if(!newLabelNeeded) {
                         // update the label equivalence data for every label in the mask
                         for(int k=-1; k<=1; k++) {
                             for(int l=-1; l<=0; l++) {
-                                if(components[i+k][j+l] != 0 && components[i+k][j+l] != smallestLabel) {
+                                int neighbourLabel = components.get(i+k, j+l);
+                                if(neighbourLabel != 0 && neighbourLabel != smallestLabel) {
+                                    equivalenceMerges++;
                                     Set<Integer> setWithThisLabel = null;
                                     for(int m=0; m<labelEquivalence.size(); m++) {
                                         Set<Integer> labelSet = labelEquivalence.get(m);
-                                        if(labelSet.contains(components[i+k][j+l]) || labelSet.contains(smallestLabel)) {
+                                        if(labelSet.contains(neighbourLabel) || labelSet.contains(smallestLabel)) {
                                             if(setWithThisLabel == null) {
                                                 // first set with this label found, add the other label
                                                 setWithThisLabel = labelSet;
-                                                labelSet.add(components[i + k][j + l]);
+                                                labelSet.add(neighbourLabel);
                                                 labelSet.add(smallestLabel);
                                             } else {
                                                 // there's already a set with this label, move the labels and remove this set
@@ -73,11 +131,11 @@ public class CCA {
                                     if(setWithThisLabel == null) {
                                         // no set with this label exists, create a new one
                                         Set<Integer> labelSet = new HashSet<>();
-                                        labelSet.add(components[i+k][j+l]);
+                                        labelSet.add(neighbourLabel);
                                         labelSet.add(smallestLabel);
                                         labelEquivalence.add(labelSet);
                                     }
-                                    components[i + k][j + l] = smallestLabel;
+                                    components.set(i+k, j+l, smallestLabel);
                                 }
                             }
                         }
@@ -88,12 +146,10 @@ public class CCA {
             }
         }
 
+        labelsCreated = label-1;
+
         // colour the components
-        for(int i=0; i<components.length; i++) {
-            for(int j=0; j<components[i].length; j++) {
-                image.setRGB(i, j, ColorOperations.labelToRgb(components[i][j]));
-            }
-        }
+        colourComponents(image);
     }
 
     /**
@@ -119,72 +175,91 @@ public class CCA {
             }
         }
 
-        // replace all labels with their representative labels
-        for(int i=0; i<components.length; i++) {
-            for (int j=0; j<components[i].length; j++) {
-                if (components[i][j] != 0) {
-                    Integer representativeLabel = representativeLabels.get(components[i][j]);
-                    if(representativeLabel != null) {
-                        components[i][j] = representativeLabel;
-                    }
+        // replace all labels with their representative labels,
+        // running it again after a cancelled run gives the same labels
+        progress.setTask("Resolving label equivalences");
+        for(int index=0; index<components.size(); index++) {
+            if(index % components.getWidth() == 0) {
+                progress.update(index/components.getWidth(), components.getHeight());
+            }
+            int label = components.get(index);
+            if(label != 0) {
+                Integer representativeLabel = representativeLabels.get(label);
+                if(representativeLabel != null) {
+                    components.set(index, representativeLabel);
                 }
             }
         }
 
         // update the image
-        for(int i=0; i<components.length; i++) {
-            for(int j=0; j<components[i].length; j++) {
-                image.setRGB(i, j, ColorOperations.labelToRgb(components[i][j]));
-            }
-        }
+        colourComponents(image);
     }
 
     /**
-     * Get the bounding boxes.
+     * Get the bounding boxes of the components kept by the component filter.
      * @return The bounding boxes.
      */
     public Map<Integer, BoundingBox> getBoundingBoxes() {
-        // collect all labels
-        Set<Integer> labels = new HashSet<>();
-        for(int i=0; i<components.length; i++) {
-            for(int j=0; j<components[i].length; j++) {
-                if(components[i][j]>0) {
-                    labels.add(components[i][j]);
-                }
-            }
-        }
-
-        // initialize bounding boxes
-        labelToBoundingBox = new HashMap<>();
-        for(Integer label : labels) {
-            labelToBoundingBox.put(label, new BoundingBox(-1, -1, -1, -1, label));
-        }
+        // the bounds of every label, labels are never bigger than the number created
+        int[] xStarts = new int[labelsCreated+1];
+        int[] yStarts = new int[labelsCreated+1];
+        int[] xEnds = new int[labelsCreated+1];
+        int[] yEnds = new int[labelsCreated+1];
+        Arrays.fill(yStarts, -1);
+        // the labels in the order they're first found
+        int[] labels = new int[labelsCreated];
+        int count = 0;
 
-        // find min x and max x
-        for(int i=0; i<components.length; i++) {
-            for(int j=0; j<components[i].length; j++) {
-                if(components[i][j]>0) {
-                    if(labelToBoundingBox.get(components[i][j]).xStart < 0) {
-                        labelToBoundingBox.get(components[i][j]).xStart = i;
-                        labelToBoundingBox.get(components[i][j]).xEnd = i;
+        // find min and max x and y in a single row-major pass
+        progress.setTask("Finding bounding boxes");
+        for(int j=0; j<components.getHeight(); j++) {
+            progress.update(j, components.getHeight());
+            for(int i=0; i<components.getWidth(); i++) {
+                int label = components.get(i, j);
+                if(label > 0) {
+                    if(yStarts[label] < 0) {
+                        labels[count++] = label;
+                        xStarts[label] = i;
+                        xEnds[label] = i;
+                        yStarts[label] = j;
                     } else {
-                        labelToBoundingBox.get(components[i][j]).xEnd = i;
+                        if(i < xStarts[label]) {
+                            xStarts[label] = i;
+                        }
+                        if(i > xEnds[label]) {
+                            xEnds[label] = i;
+                        }
                     }
+                    yEnds[label] = j;
                 }
             }
         }
 
-        // find min y and max y
-        for(int j=0; j<components[0].length; j++) {
-            for(int i=0; i<components.length; i++) {
-                if(components[i][j]>0) {
-                    if(labelToBoundingBox.get(components[i][j]).yStart < 0) {
-                        labelToBoundingBox.get(components[i][j]).yStart = j;
-                        labelToBoundingBox.get(components[i][j]).yEnd = j;
-                    } else {
-                        labelToBoundingBox.get(components[i][j]).yEnd = j;
-                    }
+        // sized for every component, so that the components kept are iterated in the same
+        // order whether the others are filtered out or not
+        int capacity = 16;
+        while(count > 0.75*capacity) {
+            capacity *= 2;
+        }
+        labelToBoundingBox = new HashMap<>(capacity);
+        rejectedBounds = new int[64];
+        componentsFiltered = 0;
+        for(int n=0; n<count; n++) {
+            int label = labels[n];
+            if(componentFilter == null
+                    || componentFilter.accept(xStarts[label], yStarts[label], xEnds[label], yEnds[label])) {
+                labelToBoundingBox.put(label, new BoundingBox(xStarts[label], yStarts[label],
+                        xEnds[label], yEnds[label], label));
+            } else {
+                // no bounding box is made, the bounds are only kept to be drawn
+                if(4*componentsFiltered == rejectedBounds.length) {
+                    rejectedBounds = Arrays.copyOf(rejectedBounds, 2*rejectedBounds.length);
                 }
+                int index = 4*componentsFiltered++;
+                rejectedBounds[index] = xStarts[label];
+                rejectedBounds[index+1] = yStarts[label];
+                rejectedBounds[index+2] = xEnds[label];
+                rejectedBounds[index+3] = yEnds[label];
             }
         }
 
@@ -192,38 +267,98 @@ public class CCA {
     }
 
     /**
-     * Draw a bounding boxes.
+     * Colour the components according to their labels.
      * @param image The image
+     */
+    private void colourComponents(BufferedImage image) {
+        if(ColorOperations.isPackedRgb(image)) {
+            ColorOperations.colourLabels(components, image.getRaster().getDataBuffer());
+            return;
+        }
+        for(int j=0; j<components.getHeight(); j++) {
+            for(int i=0; i<components.getWidth(); i++) {
+                image.setRGB(i, j, ColorOperations.labelToRgb(components.get(i, j)));
+            }
+        }
+    }
+
+    /**
+     * Draw a bounding boxes.
+     * @param image The image, or null if nothing is drawn
      * @param boundingBox The bounding box to be drawn
      * @param color The colour
      */
     public static void drawBoundingBox(BufferedImage image, BoundingBox boundingBox, int color) {
-        for(int j=boundingBox.xStart; j<=boundingBox.xEnd; j++) {
-            image.setRGB(j, boundingBox.yStart, color);
-            image.setRGB(j, boundingBox.yEnd, color);
+        drawBounds(image, boundingBox.xStart, boundingBox.yStart, boundingBox.xEnd, boundingBox.yEnd, color);
+    }
+
+    /**
+     * Draw the bounds of a component.
+     * @param image The image, or null if nothing is drawn
+     * @param xStart The left x coordinate
+     * @param yStart The top y coordinate
+     * @param xEnd The right x coordinate
+     * @param yEnd The bottom y coordinate
+     * @param color The colour
+     */
+    private static void drawBounds(BufferedImage image, int xStart, int yStart, int xEnd, int yEnd, int color) {
+        if(image == null) {
+            return;
         }
-        for(int j=boundingBox.yStart; j<=boundingBox.yEnd; j++) {
-            image.setRGB(boundingBox.xStart, j, color);
-            image.setRGB(boundingBox.xEnd, j, color);
+        for(int j=xStart; j<=xEnd; j++) {
+            image.setRGB(j, yStart, color);
+            image.setRGB(j, yEnd, color);
+        }
+        for(int j=yStart; j<=yEnd; j++) {
+            image.setRGB(xStart, j, color);
+            image.setRGB(xEnd, j, color);
         }
     }
 
     /**
-     * Draw all bounding boxes.
+     * Draw all bounding boxes, those of the components filtered out in black.
      * @param image The image
      */
     public void drawBoundingBoxes(BufferedImage image) {
         // draw bounding boxes
         for(BoundingBox boundingBox : labelToBoundingBox.values()) {
-            drawBoundingBox(image, boundingBox, ColorOperations.white());
+            drawBoundingBox(image, boundingBox, ColorOperations.WHITE);
+        }
+        for(int n=0; n<componentsFiltered; n++) {
+            drawBounds(image, rejectedBounds[4*n], rejectedBounds[4*n+1], rejectedBounds[4*n+2],
+                    rejectedBounds[4*n+3], ColorOperations.BLACK);
         }
     }
 
+    /**
+     * Get the number of components the last bounding boxes were not made for.
+     * @return The number of components filtered out
+     */
+    public int getComponentsFiltered() {
+        return componentsFiltered;
+    }
+
+    /**
+     * Get the number of labels created while labelling the components.
+     * @return The number of labels
+     */
+    public int getLabelsCreated() {
+        return labelsCreated;
+    }
+
+    /**
+     * Get the number of times two labels were found to be equivalent while labelling the components.
+     * @return The number of equivalence merges
+     */
+    public int getEquivalenceMerges() {
+        return equivalenceMerges;
+    }
+
     /**
      * Get the component matrix.
      * @return The component matrix
      */
-    public int[][] getComponents() {
+    public LabelMatrix getComponents() {
         return components;
     }
 }
@@ -1,9 +1,29 @@
 package project.model;
 
+import java.awt.image.*;
+
 /**
  * Contains method used for colouring.
  */
 public class ColorOperations {
+    /**
+     * The white rgb value.
+     */
+    public static final int WHITE = colorToRgb(255, 255, 255);
+
+    /**
+     * The black rgb value.
+     */
+    public static final int BLACK = colorToRgb(0, 0, 0);
+
+    // the colours of the labels, they repeat after the last one
+    private static final int[] labelColors = new int[81];
+
+    static {
+        for(int label=0; label<labelColors.length; label++) {
+            labelColors[label] = computeLabelColor(label);
+        }
+    }
     /**
      * Convert a greyscale colour to the rgb value.
      * @param value The greyscale colour
@@ -47,6 +67,62 @@ public class ColorOperations {
      * @return The colour
      */
     public static int labelToRgb(int label) {
+        if(label < labelColors.length) {
+            return labelColors[label];
+        }
+        return labelColors[(label-1)%(labelColors.length-1) + 1];
+    }
+
+    /**
+     * Colour a label matrix into the data buffer of an image with one int per
+     * pixel in the rgb layout of <code>BufferedImage.TYPE_INT_RGB</code>,
+     * whose rows are as wide as the matrix.
+     * @param labels The label matrix
+     * @param buffer The data buffer
+     */
+    public static void colourLabels(LabelMatrix labels, DataBuffer buffer) {
+        // TYPE_INT_RGB keeps no alpha
+        if(buffer instanceof DataBufferInt && buffer.getNumBanks() == 1) {
+            int[] data = ((DataBufferInt)buffer).getData();
+            int offset = buffer.getOffset();
+            for(int i=0; i<labels.size(); i++) {
+                data[offset+i] = labelToRgb(labels.get(i)) & 0xFFFFFF;
+            }
+        } else {
+            for(int i=0; i<labels.size(); i++) {
+                buffer.setElem(i, labelToRgb(labels.get(i)) & 0xFFFFFF);
+            }
+        }
+    }
+
+    /**
+     * Check if the pixels of an image can be coloured with <code>colourLabels</code>.
+     * @param image The image
+     * @return True if its data buffer holds one rgb int per pixel with no gaps
+     */
+    public static boolean isPackedRgb(BufferedImage image) {
+        WritableRaster raster = image.getRaster();
+        if(raster.getParent() != null || raster.getSampleModelTranslateX() != 0 ||
+                raster.getSampleModelTranslateY() != 0 || raster.getDataBuffer().getDataType() != DataBuffer.TYPE_INT) {
+            return false;
+        }
+        if(!(raster.getSampleModel() instanceof SinglePixelPackedSampleModel) ||
+                !(image.getColorModel() instanceof DirectColorModel)) {
+            return false;
+        }
+        SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel)raster.getSampleModel();
+        DirectColorModel colorModel = (DirectColorModel)image.getColorModel();
+        return sampleModel.getScanlineStride() == image.getWidth() && !colorModel.hasAlpha() &&
+                colorModel.getRedMask() == 0xFF0000 && colorModel.getGreenMask() == 0xFF00 &&
+                colorModel.getBlueMask() == 0xFF;
+    }
+
+    /**
+     * Compute the colour for a label of the palette.
+     * @param label The label, at most 80
+     * @return The colour
+     */
+    private static int computeLabelColor(int label) {
         if(label <= 10) {
             return colorToRgb(25*label, 0, 0);
         }
@@ -68,10 +144,7 @@ public class ColorOperations {
         if(label <= 70) {
             return colorToRgb(255, 255, 25*(label-60));
         }
-        if(label <= 80) {
-            return colorToRgb(25*(80-label), 25*(80-label), 25*(80-label));
-        }
-        return labelToRgb(label-80);
+        return colorToRgb(25*(80-label), 25*(80-label), 25*(80-label));
     }
 
     /**
@@ -79,7 +152,7 @@ public class ColorOperations {
      * @return The white rgb value
      */
     public static int white() {
-        return valueToRgb(255);
+        return WHITE;
     }
 
     /**
@@ -87,6 +160,6 @@ public class ColorOperations {
      * @return The black rgb value
      */
     public static int black() {
-        return valueToRgb(0);
+        return BLACK;
     }
 }
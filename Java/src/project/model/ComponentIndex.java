@@ -0,0 +1,97 @@
+package project.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Buckets the components left for recognition by the stave they are near, so
+ * that the components of a bar don't have to be searched for among all the
+ * components of the page.
+ * <p>
+ * The components are sorted by their left x coordinate once, and put into the
+ * vertical band of every stave they are in with a single sweep, so the
+ * components of every band stay sorted. The components of a bar are then the
+ * run of its band starting after the left bound of the bar, found by binary
+ * search, up to its right bound.
+ * </p>
+ */
+class ComponentIndex {
+    // the components in the band of every stave, and their left x coordinates
+    private List<ArrayList<BoundingBox>> bands = new ArrayList<>();
+    private int[][] bandXStarts;
+
+    /**
+     * Bucket the components. The band of a stave reaches half way to the next
+     * staves, or five stave spaces beyond the first and last staves.
+     * @param components The components
+     * @param staves The staves
+     * @param staveSpaceWidth The average stave space width
+     */
+    ComponentIndex(List<BoundingBox> components, ArrayList<ArrayList<BoundingBox>> staves, int staveSpaceWidth) {
+        int[] upperBounds = new int[staves.size()];
+        int[] lowerBounds = new int[staves.size()];
+        for(int i=0; i<staves.size(); i++) {
+            ArrayList<BoundingBox> stave = staves.get(i);
+            upperBounds[i] = i == 0 ?
+                    stave.get(0).yStart - 5*staveSpaceWidth :
+                    (stave.get(0).yStart + staves.get(i-1).get(4).yEnd)/2;
+            lowerBounds[i] = i == staves.size()-1 ?
+                    stave.get(4).yEnd + 5*staveSpaceWidth :
+                    (stave.get(4).yEnd + staves.get(i+1).get(0).yStart)/2;
+            bands.add(new ArrayList<>());
+        }
+
+        // a stable sort, components starting at the same x stay in their order
+        ArrayList<BoundingBox> sortedComponents = new ArrayList<>(components);
+        sortedComponents.sort(Comparator.comparingInt(component -> component.xStart));
+        for(BoundingBox component : sortedComponents) {
+            int y = component.getYPosition();
+            for(int i=0; i<staves.size(); i++) {
+                if(y > upperBounds[i] && y < lowerBounds[i]) {
+                    bands.get(i).add(component);
+                }
+            }
+        }
+
+        bandXStarts = new int[staves.size()][];
+        for(int i=0; i<staves.size(); i++) {
+            ArrayList<BoundingBox> band = bands.get(i);
+            bandXStarts[i] = new int[band.size()];
+            for(int j=0; j<band.size(); j++) {
+                bandXStarts[i][j] = band.get(j).xStart;
+            }
+        }
+    }
+
+    /**
+     * Get the components of a bar of a stave.
+     * @param stave The index of the stave
+     * @param leftBound The x coordinate the components start after
+     * @param rightBound The x coordinate the components end before
+     * @return A new list of the components, sorted by their left x coordinate
+     */
+    ArrayList<BoundingBox> getComponents(int stave, int leftBound, int rightBound) {
+        ArrayList<BoundingBox> band = bands.get(stave);
+        int[] xStarts = bandXStarts[stave];
+
+        // the first component starting after the left bound
+        int first = Arrays.binarySearch(xStarts, leftBound + 1);
+        if(first < 0) {
+            first = -first - 1;
+        } else {
+            while(first > 0 && xStarts[first-1] == leftBound + 1) {
+                first--;
+            }
+        }
+
+        ArrayList<BoundingBox> components = new ArrayList<>();
+        for(int i=first; i<band.size() && xStarts[i] < rightBound; i++) {
+            if(band.get(i).xEnd < rightBound) {
+                components.add(band.get(i));
+            }
+        }
+        return components;
+    }
+}
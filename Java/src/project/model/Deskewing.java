@@ -1,16 +1,43 @@
 package project.model;
 
+import project.utils.ImageFile;
+
+import java.awt.*;
 import java.awt.geom.AffineTransform;
-import java.awt.image.AffineTransformOp;
-import java.awt.image.BufferedImage;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.image.*;
+import java.util.Arrays;
 
 /**
  * Deskews the image.
  */
 public class Deskewing {
+    // pixels darker than this become black
+    static final int binarizationThreshold = 150;
+
+    // the angles tried, in degrees
+    static final double angleIncrement = 0.05;
+    static final double maxAngle = 2;
+
+    // the strips of the page the skew is estimated from, as fractions of its width
+    private static final double[] estimationStripCentres = {0.2, 0.8};
+    private static final double estimationStripWidth = 0.03125;
+    // the rows of a strip with stave line segments needed in each strip to trust the estimate
+    private static final int minLineRows = 5;
+    // the rows of a binary page rotated at once
+    private static final int rotationBandHeight = 256;
+
+    private BufferedImage originalImage;
     private BufferedImage image;
     private int staveLineThreshold;
     private int[] histogram;
+    private Progress progress = new Progress(null);
+    private int anglesTried;
+    private double skewEpsilon = 0;
+    private double estimatedAngle;
+    private boolean skipped;
+    private int pyramidFactor = 1;
+    private double coarseAngle;
 
     /**
      * Create a new instance.
@@ -18,6 +45,7 @@ public class Deskewing {
      * @param staveLineThreshold The stave line threshold
      */
     public Deskewing(BufferedImage image, int staveLineThreshold) {
+        originalImage = image;
         updateImage(image);
         this.staveLineThreshold = staveLineThreshold;
     }
@@ -30,6 +58,90 @@ public class Deskewing {
         return image;
     }
 
+    /**
+     * Get the number of angles tried by the last deskewing.
+     * @return The number of angles tried
+     */
+    public int getAnglesTried() {
+        return anglesTried;
+    }
+
+    /**
+     * Get the skew estimated by the last deskewing before trying any angle.
+     * @return The estimated angle in degrees, NaN if the page has too few stave line segments
+     * or the skew was not estimated
+     */
+    public double getEstimatedAngle() {
+        return estimatedAngle;
+    }
+
+    /**
+     * Get the best angle found on the downsampled page by the last deskewing.
+     * @return The angle in degrees, NaN if the page was not downsampled
+     */
+    public double getCoarseAngle() {
+        return coarseAngle;
+    }
+
+    /**
+     * Check if the last deskewing didn't try any angle, as the estimated skew was negligible.
+     * @return True if the search of the angle was skipped
+     */
+    public boolean isSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Get the estimated skew under which the search of the angle is skipped.
+     * @return The angle in degrees
+     */
+    public double getSkewEpsilon() {
+        return skewEpsilon;
+    }
+
+    /**
+     * Set the estimated skew under which the search of the angle is skipped and the page
+     * is only binarized. It's 0 by default, as the search can turn a level page by an
+     * increment when the sums of two angles are the same, and skipping it can change the
+     * symbols found. Half the angle increment skips the pages the search has no angle
+     * closer to than 0.
+     * @param skewEpsilon The angle in degrees, 0 to always search without estimating the skew
+     */
+    public void setSkewEpsilon(double skewEpsilon) {
+        this.skewEpsilon = skewEpsilon;
+    }
+
+    /**
+     * Get the factor the page is downsampled by to search the angle first.
+     * @return The factor, 1 if the angle is only searched at full resolution
+     */
+    public int getPyramidFactor() {
+        return pyramidFactor;
+    }
+
+    /**
+     * Set the factor the page is downsampled by to search the angle first. Every angle
+     * is tried on the downsampled page, with an increment as many times bigger as half
+     * the factor, and the best one is only refined at full resolution within one of
+     * these increments. A factor of 4 or 8 rotates the full page 5 or 9 times whatever
+     * its skew, instead of once per angle tried.
+     * @param pyramidFactor The factor, 1 to search the angle at full resolution
+     */
+    public void setPyramidFactor(int pyramidFactor) {
+        if(pyramidFactor < 1) {
+            throw new IllegalArgumentException("The pyramid factor must be at least 1");
+        }
+        this.pyramidFactor = pyramidFactor;
+    }
+
+    /**
+     * Set where the progress is reported.
+     * @param progress The progress
+     */
+    public void setProgress(Progress progress) {
+        this.progress = progress;
+    }
+
     /**
      * Update the image.
      * @param image The new image
@@ -48,8 +160,8 @@ public class Deskewing {
         BufferedImage image2 = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_BYTE_BINARY);
         for(int i=0; i<image.getWidth(); i++) {
             for(int j=0; j<image.getHeight(); j++) {
-                int value = ColorOperations.rgbToValue(image.getRGB(i, j)) < 150 ?
-                        ColorOperations.black() : ColorOperations.white();
+                int value = ColorOperations.rgbToValue(image.getRGB(i, j)) < binarizationThreshold ?
+                        ColorOperations.BLACK : ColorOperations.WHITE;
                 image2.setRGB(i, j, value);
             }
         }
@@ -57,18 +169,243 @@ public class Deskewing {
     }
 
     /**
-     * Rotate the image.
-     * @param image The image to be rotated
+     * Binarize the original image without rotating it, writing the bits of the binary image directly.
+     * @return The binary image
+     */
+    private BufferedImage binarizeOriginal() {
+        BufferedImage image2 = new BufferedImage(originalImage.getWidth(), originalImage.getHeight(),
+                BufferedImage.TYPE_BYTE_BINARY);
+        byte[] bits = ((DataBufferByte)image2.getRaster().getDataBuffer()).getData();
+        int scanlineStride = ((MultiPixelPackedSampleModel)image2.getSampleModel()).getScanlineStride();
+        int[] grayValues = getGrayValues();
+        int[] row = new int[originalImage.getWidth()];
+        for(int j=0; j<originalImage.getHeight(); j++) {
+            ImageFile.readGrayRow(originalImage, grayValues, 0, j, row.length, row);
+            // the bits are 0 for black and 1 for white, from the leftmost pixel
+            for(int i=0; i<row.length; i++) {
+                if(row[i] >= binarizationThreshold) {
+                    bits[j*scanlineStride + (i>>3)] |= 0x80 >>> (i&7);
+                }
+            }
+        }
+        return image2;
+    }
+
+    /**
+     * Binarize a rotated grey raster, writing the bits of the binary image directly.
+     * @param raster The raster of the grey values and of the coverage, as made by <code>getRotationSource</code>
+     * @return The binary image
+     */
+    private static BufferedImage binarizeRaster(Raster raster) {
+        BufferedImage image2 = new BufferedImage(raster.getWidth(), raster.getHeight(), BufferedImage.TYPE_BYTE_BINARY);
+        binarizeRaster(raster, image2, 0);
+        return image2;
+    }
+
+    /**
+     * Binarize a rotated grey raster into rows of a binary image.
+     * @param raster The raster of the grey values and of the coverage, as made by <code>getRotationSource</code>
+     * @param image2 The binary image, as wide as the raster
+     * @param firstRow The row of the binary image the first row of the raster goes to
+     */
+    private static void binarizeRaster(Raster raster, BufferedImage image2, int firstRow) {
+        byte[] bits = ((DataBufferByte)image2.getRaster().getDataBuffer()).getData();
+        int scanlineStride = ((MultiPixelPackedSampleModel)image2.getSampleModel()).getScanlineStride();
+        int[] values = new int[raster.getWidth()];
+        int[] coverage = new int[raster.getWidth()];
+        for(int j=0; j<raster.getHeight(); j++) {
+            raster.getSamples(0, j, values.length, 1, 0, values);
+            raster.getSamples(0, j, coverage.length, 1, 1, coverage);
+            // the bits are 0 for black and 1 for white, from the leftmost pixel
+            int index = (firstRow + j)*scanlineStride;
+            for(int i=0; i<values.length; i++) {
+                // the corners the rotation doesn't cover are white, like the transparent
+                // pixels of a rotated colour image
+                if(values[i] >= binarizationThreshold || coverage[i] != 255) {
+                    bits[index + (i>>3)] |= 0x80 >>> (i&7);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the raster the rotations of a grey, binary or indexed image are made from, so that
+     * they're made with two bytes per pixel instead of the four of a colour image. Its first
+     * band holds the grey values of the pixels: the samples of a grey image, or the values
+     * of a binary or indexed image as in <code>ImageFile.getGrayValues</code>. Its second band
+     * is 255 everywhere, it's 0 after rotation where the image doesn't cover the page.
+     * A binary image has no such raster, as it would take 16 times its memory: it's rotated
+     * a band at a time by <code>rotateBinary</code>.
+     * @return The raster, or null if the image has to be rotated as a colour or binary image
+     */
+    private Raster getRotationSource() {
+        if(!ImageFile.isGrayConvertible(originalImage) || originalImage.getType() == BufferedImage.TYPE_BYTE_BINARY) {
+            return null;
+        }
+        return getRotationSource(getGrayValues(), 0, originalImage.getHeight());
+    }
+
+    /**
+     * Get the raster the rotations of rows of a grey, binary or indexed image are made from,
+     * as in <code>getRotationSource</code>.
+     * @param grayValues The grey value of every pixel value, or null to read the samples
+     * @param firstRow The first row
+     * @param rows The number of rows
+     * @return The raster
+     */
+    private Raster getRotationSource(int[] grayValues, int firstRow, int rows) {
+        WritableRaster raster = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE,
+                originalImage.getWidth(), rows, 2, null);
+        byte[] samples = ((DataBufferByte)raster.getDataBuffer()).getData();
+        Raster originalRaster = originalImage.getRaster();
+        int[] row = new int[originalImage.getWidth()];
+        for(int j=0; j<rows; j++) {
+            originalRaster.getSamples(0, firstRow + j, row.length, 1, 0, row);
+            int index = 2*j*row.length;
+            for(int i=0; i<row.length; i++) {
+                samples[index++] = (byte)(grayValues == null ? row[i] : grayValues[row[i]]);
+                samples[index++] = (byte)255;
+            }
+        }
+        return raster;
+    }
+
+    /**
+     * Get the transformation rotating the image.
      * @param angleDegrees The angle
+     * @return The transformation
      */
-    private void rotateImage(BufferedImage image, double angleDegrees) {
+    private AffineTransformOp getRotation(double angleDegrees) {
+        return getRotation(angleDegrees, originalImage.getWidth(), originalImage.getHeight());
+    }
+
+    /**
+     * Get the transformation rotating an image about its centre.
+     * @param angleDegrees The angle
+     * @param width The width of the image
+     * @param height The height of the image
+     * @return The transformation
+     */
+    private static AffineTransformOp getRotation(double angleDegrees, int width, int height) {
         double rotationRequired = Math.toRadians(angleDegrees);
-        double locationX = image.getWidth() / 2;
-        double locationY = image.getHeight() / 2;
+        double locationX = width / 2;
+        double locationY = height / 2;
         AffineTransform tx = AffineTransform.getRotateInstance(rotationRequired, locationX, locationY);
-        AffineTransformOp op = new AffineTransformOp(tx, AffineTransformOp.TYPE_BILINEAR);
+        return new AffineTransformOp(tx, AffineTransformOp.TYPE_BILINEAR);
+    }
 
-        updateImage(binarizeImage(op.filter(image, null)));
+    /**
+     * Rotate the image.
+     * @param source The raster made by <code>getRotationSource</code>, or null to rotate the colour image
+     * @param angleDegrees The angle
+     */
+    private void rotateImage(Raster source, double angleDegrees) {
+        if(source != null) {
+            updateImage(rotateRaster(source, angleDegrees));
+        } else if(originalImage.getType() == BufferedImage.TYPE_BYTE_BINARY) {
+            updateImage(rotateBinary(angleDegrees));
+        } else {
+            AffineTransformOp op = getRotation(angleDegrees);
+            updateImage(binarizeImage(op.filter(originalImage, null)));
+        }
+    }
+
+    /**
+     * Rotate a raster made like <code>getRotationSource</code> about its centre and binarize it.
+     * @param source The raster of the grey values and of the coverage
+     * @param angleDegrees The angle
+     * @return The binary image
+     */
+    private static BufferedImage rotateRaster(Raster source, double angleDegrees) {
+        AffineTransformOp op = getRotation(angleDegrees, source.getWidth(), source.getHeight());
+        // as big as the rotated colour image would be
+        Rectangle bounds = op.getBounds2D(source).getBounds();
+        WritableRaster rotatedRaster = source.createCompatibleWritableRaster(
+                bounds.x + bounds.width, bounds.y + bounds.height);
+        return binarizeRaster(op.filter(source, rotatedRaster));
+    }
+
+    /**
+     * Rotate a binary original image about its centre and binarize it like
+     * <code>rotateRaster</code>, a band of rows at a time: each band of the rotated image is
+     * interpolated from a raster made like <code>getRotationSource</code> of only the rows
+     * of the original it covers, so that a page decoded in bands is never expanded whole.
+     * @param angleDegrees The angle
+     * @return The binary image
+     */
+    private BufferedImage rotateBinary(double angleDegrees) {
+        AffineTransformOp op = getRotation(angleDegrees);
+        AffineTransform transform = op.getTransform();
+        AffineTransform inverse;
+        try {
+            inverse = transform.createInverse();
+        } catch (NoninvertibleTransformException e) {
+            // a rotation is always invertible
+            throw new IllegalStateException(e);
+        }
+        // as big as the rotated colour image would be
+        Rectangle bounds = op.getBounds2D(originalImage.getRaster()).getBounds();
+        int width = bounds.x + bounds.width;
+        int height = bounds.y + bounds.height;
+        BufferedImage image2 = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_BINARY);
+
+        int[] grayValues = getGrayValues();
+        for(int bandY=0; bandY<height; bandY+=rotationBandHeight) {
+            int rows = Math.min(rotationBandHeight, height - bandY);
+            // the rows of the original the band covers, with a margin for the interpolation
+            Rectangle covered = inverse.createTransformedShape(new Rectangle(0, bandY, width, rows)).getBounds();
+            int firstRow = Math.min(originalImage.getHeight() - 1, Math.max(0, covered.y - 2));
+            int lastRow = Math.min(originalImage.getHeight(), covered.y + covered.height + 2);
+            Raster bandSource = getRotationSource(grayValues, firstRow, Math.max(1, lastRow - firstRow));
+
+            // from the rows of the band source to the rows of the band
+            AffineTransform bandTransform = AffineTransform.getTranslateInstance(0, -bandY);
+            bandTransform.concatenate(transform);
+            bandTransform.translate(0, firstRow);
+            WritableRaster rotatedBand = bandSource.createCompatibleWritableRaster(width, rows);
+            new AffineTransformOp(bandTransform, AffineTransformOp.TYPE_BILINEAR).filter(bandSource, rotatedBand);
+            binarizeRaster(rotatedBand, image2, bandY);
+        }
+        return image2;
+    }
+
+    /**
+     * Get the raster the coarse angles are tried on, made like <code>getRotationSource</code>
+     * from the original image downsampled by the pyramid factor. A pixel of it is black if
+     * any of the pixels it covers is, so that thin stave lines are kept.
+     * @return The downsampled raster
+     */
+    private Raster getDownsampledSource() {
+        int width = (originalImage.getWidth() + pyramidFactor - 1)/pyramidFactor;
+        int height = (originalImage.getHeight() + pyramidFactor - 1)/pyramidFactor;
+        WritableRaster raster = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, width, height, 2, null);
+        byte[] samples = ((DataBufferByte)raster.getDataBuffer()).getData();
+        // white everywhere, with full coverage
+        Arrays.fill(samples, (byte)255);
+
+        int[] grayValues = getGrayValues();
+        int[] row = new int[originalImage.getWidth()];
+        for(int j=0; j<originalImage.getHeight(); j++) {
+            ImageFile.readGrayRow(originalImage, grayValues, 0, j, row.length, row);
+            int index = 2*(j/pyramidFactor)*width;
+            for(int i=0; i<row.length; i++) {
+                if(row[i] < binarizationThreshold) {
+                    samples[index + 2*(i/pyramidFactor)] = 0;
+                }
+            }
+        }
+        return raster;
+    }
+
+    /**
+     * Get the grey value of every pixel value of a binary or indexed original image.
+     * @return The grey values, or null if the samples or the colours are read instead
+     */
+    private int[] getGrayValues() {
+        if(originalImage.getType() != BufferedImage.TYPE_BYTE_GRAY && ImageFile.isGrayConvertible(originalImage)) {
+            return ImageFile.getGrayValues(originalImage);
+        }
+        return null;
     }
 
     /**
@@ -77,6 +414,16 @@ public class Deskewing {
      * @return The sum of the values in the projection that are above the stave line threshold
      */
     private int sumAboveThreshold() {
+        return sumAboveThreshold(histogram, staveLineThreshold);
+    }
+
+    /**
+     * Get the sum of the values in a projection that start a run above a threshold.
+     * @param histogram The projection
+     * @param staveLineThreshold The threshold
+     * @return The sum of the values
+     */
+    private static int sumAboveThreshold(int[] histogram, int staveLineThreshold) {
         int sum = 0;
         for(int i=1; i<histogram.length; i++) {
             if(histogram[i] > staveLineThreshold && histogram[i-1] < staveLineThreshold) {
@@ -86,28 +433,186 @@ public class Deskewing {
         return sum;
     }
 
+    /**
+     * Count the pixels darker than the binarization threshold in every row of a vertical strip
+     * of the original image, keeping only the rows where they are most of the strip, i.e. the
+     * segments of the stave lines crossing it.
+     * @param x The first column of the strip
+     * @param width The number of columns of the strip
+     * @param grayValues The grey value of every pixel value, or null to read the colours
+     * @return The number of dark pixels of every row, 0 for the rows without a line segment
+     */
+    private int[] projectStrip(int x, int width, int[] grayValues) {
+        int[] projection = new int[originalImage.getHeight()];
+        int[] row = new int[width];
+        for(int j=0; j<projection.length; j++) {
+            ImageFile.readGrayRow(originalImage, grayValues, x, j, width, row);
+            int dark = 0;
+            for(int i=0; i<width; i++) {
+                if(row[i] < binarizationThreshold) {
+                    dark++;
+                }
+            }
+            projection[j] = 2*dark > width ? dark : 0;
+        }
+        return projection;
+    }
+
+    /**
+     * Estimate the skew of the page from two vertical strips: the stave line segments crossing
+     * the right strip are shifted from those crossing the left one by the skew, so it's found
+     * where the projections of the two strips correlate best. Only the shifts the deskewing
+     * could undo are tried, and the best one is refined between its neighbours.
+     * @return The estimated angle in degrees, NaN if a strip has too few stave line segments
+     */
+    private double estimateSkew() {
+        int[] grayValues = getGrayValues();
+        int width = Math.max(1, (int)(originalImage.getWidth()*estimationStripWidth));
+        int[][] projections = new int[estimationStripCentres.length][];
+        for(int k=0; k<projections.length; k++) {
+            int x = (int)(originalImage.getWidth()*estimationStripCentres[k]) - width/2;
+            projections[k] = projectStrip(Math.max(0, x), width, grayValues);
+            int lineRows = 0;
+            for(int value : projections[k]) {
+                if(value > 0) {
+                    lineRows++;
+                }
+            }
+            if(lineRows < minLineRows) {
+                return Double.NaN;
+            }
+        }
+
+        int[] left = projections[0];
+        int[] right = projections[1];
+        double distance = originalImage.getWidth()*(estimationStripCentres[1] - estimationStripCentres[0]);
+        int maxShift = (int)Math.ceil(distance*Math.tan(Math.toRadians(maxAngle))) + 1;
+        long[] correlations = new long[2*maxShift+1];
+        for(int shift=-maxShift; shift<=maxShift; shift++) {
+            long correlation = 0;
+            for(int j=Math.max(0, -shift); j<Math.min(left.length, right.length-shift); j++) {
+                correlation += (long)left[j]*right[j+shift];
+            }
+            correlations[shift+maxShift] = correlation;
+        }
+        int best = maxShift;
+        for(int i=0; i<correlations.length; i++) {
+            if(correlations[i] > correlations[best]) {
+                best = i;
+            }
+        }
+        if(correlations[best] == 0) {
+            return Double.NaN;
+        }
+
+        // the top of the parabola through the best shift and its neighbours
+        double shift = best - maxShift;
+        if(best > 0 && best < correlations.length-1) {
+            double curvature = correlations[best-1] - 2.0*correlations[best] + correlations[best+1];
+            if(curvature < 0) {
+                shift += (correlations[best-1] - correlations[best+1])/(2*curvature);
+            }
+        }
+        // lines going down to the right are levelled by turning them anticlockwise
+        return -Math.toDegrees(Math.atan2(shift, distance));
+    }
+
+    /**
+     * Deskew the image by trying every angle on the downsampled page, then only the angles
+     * within one coarse increment of the best one at full resolution.
+     * @param source The raster made by <code>getRotationSource</code>, or null to rotate the colour image
+     */
+    private void deskewPyramid(Raster source) {
+        int steps = Math.max(1, pyramidFactor/2);
+        double coarseIncrement = steps*angleIncrement;
+        int coarseAngles = (int)Math.round(maxAngle/coarseIncrement);
+        int maxAnglesTried = 2*coarseAngles + 1 + 2*steps;
+
+        // from 0 outwards, so that the smallest of the best angles is kept
+        progress.setTask("Trying coarse angles");
+        Raster downsampledSource = getDownsampledSource();
+        int downsampledThreshold = staveLineThreshold/pyramidFactor;
+        coarseAngle = 0;
+        int bestSum = -1;
+        for(int i=0; i<=2*coarseAngles; i++) {
+            progress.update(anglesTried++, maxAnglesTried);
+            double angle = ((i+1)/2)*(i%2 == 0 ? -coarseIncrement : coarseIncrement);
+            int[] downsampledHistogram = Model.project(rotateRaster(downsampledSource, angle), 'x');
+            int sum = sumAboveThreshold(downsampledHistogram, downsampledThreshold);
+            if(sum > bestSum) {
+                bestSum = sum;
+                coarseAngle = angle;
+            }
+        }
+
+        // try every angle within one coarse increment, from the coarse angle outwards
+        progress.setTask("Refining the angle");
+        double angle = coarseAngle;
+        double rotated = Double.NaN;
+        bestSum = -1;
+        for(int i=0; i<=2*steps; i++) {
+            progress.update(anglesTried++, maxAnglesTried);
+            rotated = coarseAngle + ((i+1)/2)*(i%2 == 0 ? -angleIncrement : angleIncrement);
+            rotateImage(source, rotated);
+            int sum = sumAboveThreshold();
+            if(sum > bestSum) {
+                bestSum = sum;
+                angle = rotated;
+            }
+        }
+        if(rotated != angle) {
+            rotateImage(source, angle);
+        }
+        System.out.println("Angle: " + angle);
+    }
+
     /**
      * Deskew the image.
      */
     public void deskew() {
-        double increment = 0.05;
+        double increment = angleIncrement;
         double angle = 0;
-        double maxAngle = 2;
-        BufferedImage originalImage = image;
+        anglesTried = 0;
+        int maxAnglesTried = 2*(int)Math.round(maxAngle/increment);
+
+        // start again from the original image if a previous run was cancelled
+        if(image != originalImage) {
+            updateImage(originalImage);
+        }
+        progress.setTask("Estimating the skew");
+
+        // a level page only needs to be binarized
+        estimatedAngle = Double.NaN;
+        coarseAngle = Double.NaN;
+        if(skewEpsilon > 0) {
+            estimatedAngle = estimateSkew();
+        }
+        skipped = Math.abs(estimatedAngle) < skewEpsilon;
+        if(skipped) {
+            updateImage(binarizeOriginal());
+            return;
+        }
+        Raster source = getRotationSource();
+        if(pyramidFactor > 1) {
+            deskewPyramid(source);
+            return;
+        }
+        progress.setTask("Trying angles");
 
         // maximize the sum of the values above the threshold
         int previousSum = sumAboveThreshold();
         int sum = previousSum;
         while(sum >= previousSum && angle < maxAngle) {
+            progress.update(anglesTried++, maxAnglesTried);
             angle += increment;
             System.out.println("Trying angle " + angle);
-            rotateImage(originalImage, angle);
+            rotateImage(source, angle);
             previousSum = sum;
             sum = sumAboveThreshold();
         }
         // reverse the last rotation that broke the loop
         angle -= increment;
-        rotateImage(originalImage, angle);
+        rotateImage(source, angle);
 
         int firstSum = sum;
         double firstAngle = angle;
@@ -120,20 +625,21 @@ public class Deskewing {
         previousSum = sumAboveThreshold();
         sum = previousSum;
         while(sum >= previousSum && angle < maxAngle) {
+            progress.update(anglesTried++, maxAnglesTried);
             angle += increment;
             System.out.println("Trying angle " + angle);
-            rotateImage(originalImage, angle);
+            rotateImage(source, angle);
             previousSum = sum;
             sum = sumAboveThreshold();
         }
         // reverse the last rotation that broke the loop
         angle -= increment;
-        rotateImage(originalImage, angle);
+        rotateImage(source, angle);
 
         // check which direction was correct
         if(sum < firstSum) {
             angle = firstAngle;
-            rotateImage(originalImage, angle);
+            rotateImage(source, angle);
         }
 
         System.out.println("Angle: " + angle);
@@ -0,0 +1,129 @@
+package project.model;
+
+import java.nio.IntBuffer;
+
+/**
+ * A matrix of component labels stored in a single array in row-major order.
+ * Labels are kept in a char array while they fit in 16 bits and the matrix
+ * switches to an int array once a bigger label is set. The labels can also be
+ * kept outside of the heap, see <code>RasterStore</code>.
+ */
+public class LabelMatrix {
+    private final int width;
+    private final int height;
+
+    private char[] narrowLabels;
+    private int[] wideLabels;
+    private IntBuffer[] offHeapLabels;
+
+    /**
+     * Create a new label matrix filled with zeros.
+     * @param width The width
+     * @param height The height
+     */
+    public LabelMatrix(int width, int height) {
+        this.width = width;
+        this.height = height;
+        narrowLabels = new char[width*height];
+    }
+
+    /**
+     * Create a new label matrix kept outside of the heap.
+     * @param width The width
+     * @param height The height
+     * @param segments The zeroed buffers holding the labels, split as in <code>OffHeapDataBuffer</code>
+     */
+    LabelMatrix(int width, int height, IntBuffer[] segments) {
+        this.width = width;
+        this.height = height;
+        offHeapLabels = segments;
+    }
+
+    /**
+     * Get the width.
+     * @return The width
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Get the height.
+     * @return The height
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Get the label at the given position.
+     * @param x The x coordinate
+     * @param y The y coordinate
+     * @return The label
+     */
+    public int get(int x, int y) {
+        return get(y*width + x);
+    }
+
+    /**
+     * Get the label at the given row-major index.
+     * @param index The index
+     * @return The label
+     */
+    public int get(int index) {
+        if(wideLabels != null) {
+            return wideLabels[index];
+        }
+        if(offHeapLabels != null) {
+            return offHeapLabels[index >>> OffHeapDataBuffer.SEGMENT_BITS].get(index & OffHeapDataBuffer.SEGMENT_MASK);
+        }
+        return narrowLabels[index];
+    }
+
+    /**
+     * Set the label at the given position.
+     * @param x The x coordinate
+     * @param y The y coordinate
+     * @param label The label
+     */
+    public void set(int x, int y, int label) {
+        set(y*width + x, label);
+    }
+
+    /**
+     * Set the label at the given row-major index.
+     * @param index The index
+     * @param label The label
+     */
+    public void set(int index, int label) {
+        if(wideLabels != null) {
+            wideLabels[index] = label;
+        } else if(offHeapLabels != null) {
+            offHeapLabels[index >>> OffHeapDataBuffer.SEGMENT_BITS].put(index & OffHeapDataBuffer.SEGMENT_MASK, label);
+        } else if(label <= Character.MAX_VALUE) {
+            narrowLabels[index] = (char)label;
+        } else {
+            widen();
+            wideLabels[index] = label;
+        }
+    }
+
+    /**
+     * Get the number of labels in the matrix, i.e. its width times its height.
+     * @return The size
+     */
+    public int size() {
+        return width*height;
+    }
+
+    /**
+     * Move the labels to an int array.
+     */
+    private void widen() {
+        wideLabels = new int[narrowLabels.length];
+        for(int i=0; i<narrowLabels.length; i++) {
+            wideLabels[i] = narrowLabels[i];
+        }
+        narrowLabels = null;
+    }
+}
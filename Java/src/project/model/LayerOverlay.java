@@ -0,0 +1,137 @@
+package project.model;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.IndexColorModel;
+import java.awt.image.MultiPixelPackedSampleModel;
+
+/**
+ * Draws two stages on top of each other, marking the pixels that changed
+ * between them.
+ */
+class LayerOverlay {
+    // palette indices of the overlay image
+    private static final int BLACK = 0;
+    private static final int WHITE = 1;
+    private static final int CHANGED = 2;
+
+    private static final IndexColorModel palette = new IndexColorModel(2, 4,
+            new byte[] {0, (byte)255, (byte)255, 0},
+            new byte[] {0, (byte)255, 0, 0},
+            new byte[] {0, (byte)255, 0, (byte)255});
+
+    // 2 bit pixels for each possible byte of 1 bit pixels
+    private static final short[] expandedBytes = new short[256];
+    static {
+        for(int value=0; value<256; value++) {
+            int expanded = 0;
+            for(int bit=0; bit<8; bit++) {
+                int pixel = (value >> (7-bit)) & 1;
+                expanded |= (pixel == 0 ? BLACK : WHITE) << (14 - 2*bit);
+            }
+            expandedBytes[value] = (short)expanded;
+        }
+    }
+
+    /**
+     * Overlap two stages, the changed pixels are set to a different colour.
+     * @param previousImage The image of the previous stage
+     * @param image The image of the stage
+     * @return The image with the changed pixels marked
+     */
+    public static BufferedImage overlay(BufferedImage previousImage, BufferedImage image) {
+        if(isPackedBinary(previousImage) && isPackedBinary(image) &&
+                previousImage.getWidth() == image.getWidth() && previousImage.getHeight() == image.getHeight()) {
+            return overlayPacked(previousImage, image);
+        }
+
+        BufferedImage imageLayers = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        for (int j = 0; j < image.getHeight(); j++) {
+            for (int i = 0; i < image.getWidth(); i++) {
+                imageLayers.setRGB(i, j, previousImage.getRGB(i, j));
+                if (image.getRGB(i, j) != previousImage.getRGB(i, j)) {
+                    imageLayers.setRGB(i, j, ColorOperations.colorToRgb(255, 0, 0));
+                }
+            }
+        }
+        return imageLayers;
+    }
+
+    /**
+     * Overlap two 1 bit images by comparing whole packed rows,
+     * so that rows which did not change are only copied.
+     * @param previousImage The image of the previous stage
+     * @param image The image of the stage
+     * @return The image with the changed pixels marked
+     */
+    private static BufferedImage overlayPacked(BufferedImage previousImage, BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        byte[] previousData = ((DataBufferByte)previousImage.getRaster().getDataBuffer()).getData();
+        byte[] data = ((DataBufferByte)image.getRaster().getDataBuffer()).getData();
+        int previousStride = ((MultiPixelPackedSampleModel)previousImage.getSampleModel()).getScanlineStride();
+        int stride = ((MultiPixelPackedSampleModel)image.getSampleModel()).getScanlineStride();
+        int rowBytes = (width+7)/8;
+
+        BufferedImage imageLayers = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_BINARY, palette);
+        byte[] layersData = ((DataBufferByte)imageLayers.getRaster().getDataBuffer()).getData();
+        int layersStride = ((MultiPixelPackedSampleModel)imageLayers.getSampleModel()).getScanlineStride();
+
+        for(int j=0; j<height; j++) {
+            int previousRow = j*previousStride;
+            int row = j*stride;
+            int layersRow = j*layersStride;
+
+            // copy the previous stage
+            boolean rowChanged = false;
+            for(int k=0; k<rowBytes; k++) {
+                short expanded = expandedBytes[previousData[previousRow+k] & 0xFF];
+                layersData[layersRow + 2*k] = (byte)(expanded >> 8);
+                if(2*k+1 < layersStride) {
+                    layersData[layersRow + 2*k+1] = (byte)expanded;
+                }
+                if(previousData[previousRow+k] != data[row+k]) {
+                    rowChanged = true;
+                }
+            }
+            if(!rowChanged) {
+                continue;
+            }
+
+            // mark the changed pixels
+            for(int k=0; k<rowBytes; k++) {
+                int changedBits = (previousData[previousRow+k] ^ data[row+k]) & 0xFF;
+                for(int bit=0; changedBits != 0 && bit<8; bit++) {
+                    int x = 8*k + bit;
+                    if((changedBits & (0x80 >> bit)) != 0 && x < width) {
+                        int index = layersRow + x/4;
+                        int shift = 6 - 2*(x%4);
+                        layersData[index] = (byte)((layersData[index] & ~(3 << shift)) | (CHANGED << shift));
+                    }
+                }
+            }
+        }
+
+        return imageLayers;
+    }
+
+    /**
+     * Check if an image is stored as 1 bit pixels, black first, that can be compared byte by byte.
+     * @param image The image
+     * @return True if the image is a packed binary image
+     */
+    private static boolean isPackedBinary(BufferedImage image) {
+        if(!(image.getSampleModel() instanceof MultiPixelPackedSampleModel) ||
+                !(image.getRaster().getDataBuffer() instanceof DataBufferByte) ||
+                !(image.getColorModel() instanceof IndexColorModel)) {
+            return false;
+        }
+        MultiPixelPackedSampleModel sampleModel = (MultiPixelPackedSampleModel)image.getSampleModel();
+        IndexColorModel colorModel = (IndexColorModel)image.getColorModel();
+        return sampleModel.getPixelBitStride() == 1 && sampleModel.getDataBitOffset() == 0 &&
+                image.getRaster().getSampleModelTranslateX() == 0 &&
+                image.getRaster().getSampleModelTranslateY() == 0 &&
+                image.getRaster().getDataBuffer().getOffset() == 0 &&
+                colorModel.getRGB(0) == ColorOperations.BLACK && colorModel.getRGB(1) == ColorOperations.WHITE;
+    }
+}
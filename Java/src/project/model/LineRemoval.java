@@ -2,6 +2,7 @@ package project.model;
 
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Performs line removal on the image.
@@ -17,6 +18,8 @@ public class LineRemoval {
     private ArrayList<BoundingBox> barLines;
     private ArrayList<BoundingBox> verticalLines;
 
+    private Progress progress = new Progress(null);
+
     /**
      * Create a new instance.
      */
@@ -27,6 +30,14 @@ public class LineRemoval {
         verticalLines = new ArrayList<>();
     }
 
+    /**
+     * Set where the progress is reported.
+     * @param progress The progress
+     */
+    public void setProgress(Progress progress) {
+        this.progress = progress;
+    }
+
     /**
      * Remove the stave.
      * @param image The image
@@ -34,7 +45,13 @@ public class LineRemoval {
      * @param staveLineThreshold The threshold used to find stave lines in the projection
      */
     public void removeStave(BufferedImage image, int[] histogram, int staveLineThreshold) {
+        // forget the lines of a cancelled run
+        staveLines.clear();
+        staves.clear();
+
+        progress.setTask("Removing stave lines");
         for(int i=lineDistortion; i<histogram.length-lineDistortion; i++) {
+            progress.update(i, histogram.length);
             if(histogram[i] > staveLineThreshold) {
                 // find the bottom
                 int bottom = i+1;
@@ -50,11 +67,11 @@ public class LineRemoval {
                 for(int j=0; j<image.getWidth(); j++) {
                     // check if the pixel is next to a symbol
                     boolean nextToSymbol = false;
-                    if(image.getRGB(j, i-1) == ColorOperations.black() &&
-                            image.getRGB(j, bottom+1) == ColorOperations.black()) {
+                    if(image.getRGB(j, i-1) == ColorOperations.BLACK &&
+                            image.getRGB(j, bottom+1) == ColorOperations.BLACK) {
                         nextToSymbol = true;
-                    } else if(image.getRGB(j, i-lineDistortion) == ColorOperations.black() ||
-                            image.getRGB(j, bottom+lineDistortion) == ColorOperations.black()) {
+                    } else if(image.getRGB(j, i-lineDistortion) == ColorOperations.BLACK ||
+                            image.getRGB(j, bottom+lineDistortion) == ColorOperations.BLACK) {
                         nextToSymbol = true;
                     }
 
@@ -63,8 +80,8 @@ public class LineRemoval {
 
                         // remove the line
                         for(int k=i-lineDistortion; k<=bottom+lineDistortion; k++) {
-                            if(image.getRGB(j, k) == ColorOperations.black()) {
-                                image.setRGB(j, k, ColorOperations.white());
+                            if(image.getRGB(j, k) == ColorOperations.BLACK) {
+                                image.setRGB(j, k, ColorOperations.WHITE);
 
                                 if(beginning < 0 && pixelsRemoved > 5) {
                                     beginning = j;
@@ -116,6 +133,14 @@ public class LineRemoval {
         System.out.println("Number of staves: " + staves.size());
     }
 
+    /**
+     * Get the stave lines.
+     * @return The stave lines
+     */
+    public ArrayList<BoundingBox> getStaveLines() {
+        return staveLines;
+    }
+
     /**
      * Get the staves.
      * @return The staves
@@ -138,14 +163,16 @@ public class LineRemoval {
      * @param image The image to be updated
      */
     public void patch(BufferedImage originalImage, BufferedImage image) {
+        progress.setTask("Patching up");
         for(int i=0; i<staveLines.size()-1; i++) {
+            progress.update(i, staveLines.size()-1);
             int lastPathTop = -1;
             int lastPathBottom = -1;
             int lastLeftMoves = -1;
             for(int j=staveLines.get(i).xStart+5; j<=staveLines.get(i).xEnd-5; j++) {
                 int x = j;
                 int y = staveLines.get(i).yEnd+1;
-                if(image.getRGB(x, y) == ColorOperations.black()) {
+                if(image.getRGB(x, y) == ColorOperations.BLACK) {
                     // find a path between this stave line and the next
                     boolean pathFound = false;
                     int leftMoves = 0;
@@ -155,7 +182,7 @@ public class LineRemoval {
 
                         int[] values = {0, -1, 1};
                         for(int l : values) {
-                            if(originalImage.getRGB(x+l, y+1) == ColorOperations.black()) {
+                            if(originalImage.getRGB(x+l, y+1) == ColorOperations.BLACK) {
                                 x += l;
                                 y++;
 
@@ -170,7 +197,7 @@ public class LineRemoval {
                         if(!pixelFound) {
                             int[] values2 = {-1, 1};
                             for(int l : values2) {
-                                if(originalImage.getRGB(x+l, y) == ColorOperations.black()) {
+                                if(originalImage.getRGB(x+l, y) == ColorOperations.BLACK) {
                                     x += l;
                                     pixelFound = true;
                                     if(l == -1) {
@@ -198,7 +225,7 @@ public class LineRemoval {
 
                         boolean straightLine = true;
                         for(int l=y; l>staveLines.get(i).yEnd; l--) {
-                            if(image.getRGB(x, l) == ColorOperations.white()) {
+                            if(image.getRGB(x, l) == ColorOperations.WHITE) {
                                 straightLine = false;
                                 break;
                             }
@@ -223,12 +250,12 @@ public class LineRemoval {
                                 x-lastPathBottom > 1 && x-lastPathBottom < staveSpaceWidth*1.2) {
                             for(int k=lastPathTop; k<=j; k++) {
                                 for(int l=staveLines.get(i).yStart-1; l<=staveLines.get(i).yEnd+1; l++) {
-                                    image.setRGB(k, l, ColorOperations.black());
+                                    image.setRGB(k, l, ColorOperations.BLACK);
                                 }
                             }
                             for(int k=lastPathBottom; k<=x; k++) {
                                 for(int l=staveLines.get(i+1).yStart-1; l<=staveLines.get(i+1).yEnd+1; l++) {
-                                    image.setRGB(k, l, ColorOperations.black());
+                                    image.setRGB(k, l, ColorOperations.BLACK);
                                 }
                             }
                         }
@@ -245,18 +272,23 @@ public class LineRemoval {
     /**
      * Remove vertical lines.
      * @param image The image where lines will be removed
-     * @param imageWithBars The image where recognized bar lines will be marked
      */
-    public void removeVerticalLines(BufferedImage image, BufferedImage imageWithBars) {
+    public void removeVerticalLines(BufferedImage image) {
         int minHeight = (int)(2.2*staveSpaceWidth);
         int maxWidth = staveSpaceWidth/3;
 
+        // forget the lines of a cancelled run
+        barLines.clear();
+        verticalLines.clear();
+
+        progress.setTask("Removing vertical lines");
         for(int j=0; j<image.getHeight(); j++) {
+            progress.update(j, image.getHeight());
             for(int i=0; i<image.getWidth(); i++) {
-                if(image.getRGB(i, j) == ColorOperations.black()) {
+                if(image.getRGB(i, j) == ColorOperations.BLACK) {
                     // find width
                     int width = lineDistortion;
-                    while(image.getRGB(i+width, j) == ColorOperations.black()) {
+                    while(image.getRGB(i+width, j) == ColorOperations.BLACK) {
                         width++;
                     }
                     if(width > maxWidth) {
@@ -275,7 +307,7 @@ public class LineRemoval {
 
                         boolean atLeastOnePixel = false;
                         for(int k=i; k<i+width; k++) {
-                            if(image.getRGB(k, j+height) == ColorOperations.black()) {
+                            if(image.getRGB(k, j+height) == ColorOperations.BLACK) {
                                 atLeastOnePixel = true;
                                 pixelsOff = 0;
                                 pixelGap = 0;
@@ -284,12 +316,12 @@ public class LineRemoval {
 
                         if(!atLeastOnePixel) {
                             for(int k=i-lineDistortion; k<i; k++) {
-                                if(image.getRGB(k, j+height) == ColorOperations.black()) {
+                                if(image.getRGB(k, j+height) == ColorOperations.BLACK) {
                                     atLeastOnePixel = true;
                                 }
                             }
                             for(int k=i+width; k<i+width-1+lineDistortion; k++) {
-                                if(image.getRGB(k, j+height) == ColorOperations.black()) {
+                                if(image.getRGB(k, j+height) == ColorOperations.BLACK) {
                                     atLeastOnePixel = true;
                                 }
                             }
@@ -315,7 +347,7 @@ public class LineRemoval {
                         noPixels = 0;
                         widthLeft++;
                         for(int k=j; k<j+height; k++) {
-                            if(image.getRGB(i-widthLeft, k) == ColorOperations.black()) {
+                            if(image.getRGB(i-widthLeft, k) == ColorOperations.BLACK) {
                                 noPixels++;
                             }
                         }
@@ -331,7 +363,7 @@ public class LineRemoval {
                         noPixels = 0;
                         widthRight++;
                         for(int k=j; k<j+height; k++) {
-                            if(image.getRGB(i+widthRight, k) == ColorOperations.black()) {
+                            if(image.getRGB(i+widthRight, k) == ColorOperations.BLACK) {
                                 noPixels++;
                             }
                         }
@@ -375,7 +407,7 @@ public class LineRemoval {
                             int gap = 0;
 
                             for(int m=i-widthLeft-1-threshold*2; m<i-widthLeft; m++) {
-                                if(image.getRGB(m, l) == ColorOperations.black()) {
+                                if(image.getRGB(m, l) == ColorOperations.BLACK) {
                                     pixels++;
                                 } else {
                                     gap++;
@@ -387,7 +419,7 @@ public class LineRemoval {
 
                             gap = 0;
                             for(int m=i+width+widthRight; m<i+width+widthRight+threshold*2; m++) {
-                                if(image.getRGB(m, l) == ColorOperations.black()) {
+                                if(image.getRGB(m, l) == ColorOperations.BLACK) {
                                     pixels++;
                                 } else {
                                     gap++;
@@ -426,13 +458,6 @@ public class LineRemoval {
                             }
                         }
                         barLines.add(index+1, barLine);
-
-                        // mark the recognized bar line
-                        for (int l = j; l < j + height; l++) {
-                            for (int k = i-lineDistortion; k < i+width-1+lineDistortion; k++) {
-                                imageWithBars.setRGB(k, l, ColorOperations.colorToRgb(0, 0, 255));
-                            }
-                        }
                     } else {
                         // don't process the line if too far from staves
                         BoundingBox closestStaveLine = staveLines.get(0);
@@ -451,18 +476,18 @@ public class LineRemoval {
                     for(int l=j; l<j+height; l++) {
                         // check if the pixel is next to a component
                         boolean nextToSymbol = false;
-                        if(image.getRGB(i-widthLeft-1, l) == ColorOperations.black() &&
-                                image.getRGB(i-widthLeft-lineDistortion, l) == ColorOperations.black()) {
+                        if(image.getRGB(i-widthLeft-1, l) == ColorOperations.BLACK &&
+                                image.getRGB(i-widthLeft-lineDistortion, l) == ColorOperations.BLACK) {
                             nextToSymbol = true;
                         }
-                        if(image.getRGB(i+width+widthRight, l) == ColorOperations.black() &&
-                                image.getRGB(i+width+widthRight-1+lineDistortion, l) == ColorOperations.black()) {
+                        if(image.getRGB(i+width+widthRight, l) == ColorOperations.BLACK &&
+                                image.getRGB(i+width+widthRight-1+lineDistortion, l) == ColorOperations.BLACK) {
                             nextToSymbol = true;
                         }
 
                         if(!nextToSymbol) {
                             for(int k=i-widthLeft-lineDistortion; k<=i+width+widthRight-1+lineDistortion; k++) {
-                                image.setRGB(k, l, ColorOperations.white());
+                                image.setRGB(k, l, ColorOperations.WHITE);
                             }
                             consecutiveRemoves++;
                         } else {
@@ -472,7 +497,7 @@ public class LineRemoval {
                                     (consecutiveRemoves < staveSpaceWidth/2 && height < 3*staveSpaceWidth)) {
                                 for(int m=l-1; m >= l-consecutiveRemoves; m--) {
                                     for(int k=i-widthLeft; k<=i+width+widthRight-1; k++) {
-                                        image.setRGB(k, m, ColorOperations.black());
+                                        image.setRGB(k, m, ColorOperations.BLACK);
                                     }
                                 }
                             }
@@ -488,6 +513,21 @@ public class LineRemoval {
         System.out.println("Number of bar lines: " + barLines.size());
     }
 
+    /**
+     * Mark the recognized bar lines.
+     * @param image The image where the bar lines will be marked
+     * @param barLines The bar lines, as got once they were all found
+     */
+    public void markBarLines(BufferedImage image, List<BoundingBox> barLines) {
+        for(BoundingBox barLine : barLines) {
+            for (int l = barLine.yStart; l <= barLine.yEnd; l++) {
+                for (int k = barLine.xStart-lineDistortion; k < barLine.xEnd+lineDistortion; k++) {
+                    image.setRGB(k, l, ColorOperations.colorToRgb(0, 0, 255));
+                }
+            }
+        }
+    }
+
     /**
      * Get the bar lines.
      * @return The bar lines
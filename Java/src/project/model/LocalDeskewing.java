@@ -0,0 +1,516 @@
+package project.model;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Straightens the staves of a deskewed page that are still bent or slanted, as on
+ * a photographed page, one stave at a time.
+ * <p>
+ * The page is cut into vertical strips and the staves are found in each strip as five
+ * evenly spaced line segments, keeping those spaced like most staves of the page, as
+ * ledger lines or beams can also be evenly spaced. From the middle strip outwards,
+ * every stave not followed yet is then followed from strip to strip outwards, by finding the shift at
+ * which most of its lines cross the strip, and a quadratic of the column is fitted to
+ * the row of its middle line. Every column of the page is shifted so that the staves
+ * are level with their row in the middle of the page, the rows between two staves
+ * being shifted by an interpolation of their shifts. The bands of rows around each
+ * stave are straightened in parallel, unless no column would be shifted by a pixel more
+ * than by the slope a deskewed page can keep.
+ * </p>
+ */
+public class LocalDeskewing {
+    // the number of vertical strips the staves are followed through
+    static final int strips = 32;
+    // the steepest slope of a stave followed from one strip to the next, in degrees
+    static final double maxLocalAngle = 5;
+    // the rows of a strip with fewer dark pixels than this fraction of its width are ignored
+    static final double lineFraction = 0.25;
+    // how much the distances between the lines of a stave can differ from their mean
+    static final double spacingTolerance = 0.25;
+    // the lines of a stave that must cross a strip for the stave to be found in it
+    static final int minLinesFound = 4;
+    // the strips a stave must be found in to be straightened
+    static final int minStrips = 3;
+
+    private BufferedImage image;
+    private int stripWidth;
+    private Progress progress = new Progress(null);
+
+    // the coefficients of the row of the middle line of every stave, the first and last column
+    // it was found in and its height
+    private List<double[]> staves;
+    private int maxShift;
+
+    /**
+     * Create a new instance.
+     * @param image The binary image deskewed by <code>Deskewing</code>
+     */
+    public LocalDeskewing(BufferedImage image) {
+        if(image.getType() != BufferedImage.TYPE_BYTE_BINARY
+                || image.getSampleModel().getSampleSize(0) != 1) {
+            throw new IllegalArgumentException("Local deskewing needs a binary image");
+        }
+        this.image = image;
+        stripWidth = Math.max(1, image.getWidth()/strips);
+    }
+
+    /**
+     * Get the image.
+     * @return The image, straightened once <code>deskew</code> is done
+     */
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    /**
+     * Get the number of staves straightened by the last deskewing.
+     * @return The number of staves, 0 if the page was left level
+     */
+    public int getStaves() {
+        return staves == null ? 0 : staves.size();
+    }
+
+    /**
+     * Get the biggest shift of a column of a stave by the last deskewing.
+     * @return The shift in pixels
+     */
+    public int getMaxShift() {
+        return maxShift;
+    }
+
+    /**
+     * Set where the progress is reported.
+     * @param progress The progress
+     */
+    public void setProgress(Progress progress) {
+        this.progress = progress;
+    }
+
+    /**
+     * Straighten the staves of the image.
+     */
+    public void deskew() {
+        progress.setTask("Following the staves");
+        int[][] projections = new int[strips][];
+        for(int k=0; k<strips; k++) {
+            progress.update(k, 2*strips);
+            projections[k] = projectStrip(k);
+        }
+
+        // the staves of the page are spaced alike
+        List<List<double[]>> stripStaves = new ArrayList<>();
+        List<Double> heights = new ArrayList<>();
+        for(int k=0; k<strips; k++) {
+            stripStaves.add(findStaves(projections[k]));
+            for(double[] stave : stripStaves.get(k)) {
+                heights.add(stave[4] - stave[0]);
+            }
+        }
+        Collections.sort(heights);
+        double height = heights.isEmpty() ? 0 : heights.get(heights.size()/2);
+
+        // from the middle strip outwards, where the staves are the most likely to be found
+        int middle = strips/2;
+        staves = new ArrayList<>();
+        for(int n=0; n<2*strips; n++) {
+            int k = middle + ((n+1)/2)*(n%2 == 0 ? -1 : 1);
+            if(k < 0 || k >= strips) {
+                continue;
+            }
+            progress.update(strips + n/2, 2*strips);
+            for(double[] stave : stripStaves.get(k)) {
+                if(Math.abs(stave[4] - stave[0] - height) <= spacingTolerance*height && !isFollowed(k, stave)) {
+                    List<double[]> points = followStave(projections, k, stave);
+                    if(points.size() >= minStrips) {
+                        staves.add(fit(points, stave));
+                    }
+                }
+            }
+        }
+        removeOverlaps();
+        maxShift = 0;
+        if(staves.isEmpty()) {
+            return;
+        }
+
+        // the row of the staves in the middle of the page, from the top, and the shift of every column
+        int width = image.getWidth();
+        double[] centres = new double[staves.size()];
+        double[][] columnShifts = new double[staves.size()][width];
+        double biggestShift = 0;
+        // the shifts beyond the slope left by deskewing, which only tries angles a step apart
+        double biggestBend = 0;
+        double slope = Math.tan(Math.toRadians(Deskewing.angleIncrement));
+        for(int s=0; s<staves.size(); s++) {
+            centres[s] = evaluate(staves.get(s), width/2.0);
+            for(int x=0; x<width; x++) {
+                columnShifts[s][x] = evaluate(staves.get(s), x) - centres[s];
+                biggestShift = Math.max(biggestShift, Math.abs(columnShifts[s][x]));
+                biggestBend = Math.max(biggestBend, Math.abs(columnShifts[s][x]) - slope*Math.abs(x - width/2.0));
+            }
+        }
+        if(biggestBend < 1) {
+            // level as far as deskewing can tell, straightening would only move pixels by rounding
+            staves = new ArrayList<>();
+            return;
+        }
+        maxShift = (int)Math.round(biggestShift);
+
+        progress.setTask("Straightening the staves");
+        progress.update(0, 1);
+        image = straighten(centres, columnShifts);
+    }
+
+    /**
+     * Sort the staves from the top of the page and remove those less than a stave space
+     * from another stave at any column they were both found in, keeping the one found over
+     * more columns. They're the staves found in different strips that the other one was not
+     * followed into, or ledger lines next to a stave.
+     */
+    private void removeOverlaps() {
+        double middle = image.getWidth()/2.0;
+        staves.sort((a, b) -> Double.compare(evaluate(a, middle), evaluate(b, middle)));
+        List<double[]> kept = new ArrayList<>();
+        for(double[] stave : staves) {
+            int overlapping = -1;
+            for(int i=0; i<kept.size() && overlapping < 0; i++) {
+                if(overlap(kept.get(i), stave)) {
+                    overlapping = i;
+                }
+            }
+            if(overlapping < 0) {
+                kept.add(stave);
+            } else if(stave[4] - stave[3] > kept.get(overlapping)[4] - kept.get(overlapping)[3]) {
+                kept.set(overlapping, stave);
+            }
+        }
+        kept.sort((a, b) -> Double.compare(evaluate(a, middle), evaluate(b, middle)));
+        staves = kept;
+    }
+
+    /**
+     * Check if two staves are less than a stave space apart at a strip they were both found in.
+     * @param first The coefficients of the first stave
+     * @param second The coefficients of the second stave
+     * @return True if they overlap
+     */
+    private boolean overlap(double[] first, double[] second) {
+        // the height of a stave is four spaces
+        double margin = (first[5] + second[5])/2 + Math.max(first[5], second[5])/4;
+        double start = Math.max(first[3], second[3]);
+        double end = Math.min(first[4], second[4]);
+        if(start > end) {
+            // found in different strips, compare them where they're the closest
+            start = Math.min(first[4], second[4]);
+            end = Math.max(first[3], second[3]);
+        }
+        for(double x=start; x<=end; x+=stripWidth) {
+            if(Math.abs(evaluate(first, x) - evaluate(second, x)) < margin) {
+                return true;
+            }
+        }
+        return Math.abs(evaluate(first, end) - evaluate(second, end)) < margin;
+    }
+
+    /**
+     * Check if a stave found in a strip was already followed from another strip.
+     * @param k The strip
+     * @param stave The centre rows of the lines of the stave in the strip
+     * @return True if a stave followed overlaps it there, as the five lines found can also be
+     * four lines of a stave and a ledger line or a beam
+     */
+    private boolean isFollowed(int k, double[] stave) {
+        double column = k*stripWidth + stripWidth/2.0;
+        for(double[] coefficients : staves) {
+            if(Math.abs(evaluate(coefficients, column) - stave[2]) < stave[4] - stave[0]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Count the dark pixels of every row of a strip, keeping only the rows where they're
+     * a fair part of it, i.e. the segments of the stave lines crossing it.
+     * @param k The strip
+     * @return The number of dark pixels of every row, 0 for the rows without a line segment
+     */
+    private int[] projectStrip(int k) {
+        int x = k*stripWidth;
+        int width = k == strips-1 ? image.getWidth() - x : stripWidth;
+        int[] projection = new int[image.getHeight()];
+        int[] row = new int[width];
+        for(int j=0; j<projection.length; j++) {
+            image.getRaster().getSamples(x, j, width, 1, 0, row);
+            int dark = 0;
+            for(int i=0; i<width; i++) {
+                if(row[i] == 0) {
+                    dark++;
+                }
+            }
+            projection[j] = dark > lineFraction*width ? dark : 0;
+        }
+        return projection;
+    }
+
+    /**
+     * Find the staves crossing a strip: five of its line segments with about the same
+     * distance between each of them.
+     * @param projection The projection of the strip
+     * @return The centre rows of the five lines of every stave
+     */
+    private static List<double[]> findStaves(int[] projection) {
+        // the centres of the runs of line rows
+        List<Double> lines = new ArrayList<>();
+        for(int j=0; j<projection.length; j++) {
+            if(projection[j] > 0) {
+                long sum = 0;
+                long weightedSum = 0;
+                for(; j<projection.length && projection[j] > 0; j++) {
+                    sum += projection[j];
+                    weightedSum += (long)projection[j]*j;
+                }
+                lines.add((double)weightedSum/sum);
+            }
+        }
+
+        List<double[]> staves = new ArrayList<>();
+        int i = 0;
+        while(i+4 < lines.size()) {
+            double mean = (lines.get(i+4) - lines.get(i))/4;
+            boolean even = mean >= 2;
+            for(int k=i; k<i+4 && even; k++) {
+                double distance = lines.get(k+1) - lines.get(k);
+                even = Math.abs(distance - mean) <= spacingTolerance*mean;
+            }
+            if(even) {
+                double[] stave = new double[5];
+                for(int k=0; k<5; k++) {
+                    stave[k] = lines.get(i+k);
+                }
+                staves.add(stave);
+                i += 5;
+            } else {
+                i++;
+            }
+        }
+        return staves;
+    }
+
+    /**
+     * Follow a stave from the strip it was found in outwards, finding in every strip the shift
+     * at which most of its lines cross the strip, then the most dark pixels. The search of a
+     * strip is kept near the shift of the strip before it, a strip crossed by fewer than four
+     * of the lines is skipped, as the stave doesn't reach it or is hidden by other symbols there.
+     * @param projections The projections of the strips
+     * @param first The strip the stave was found in
+     * @param stave The centre rows of the lines of the stave in the strip
+     * @return The centre column and the row of the middle line of every strip the stave was found in
+     */
+    private List<double[]> followStave(int[][] projections, int first, double[] stave) {
+        int height = image.getHeight();
+        int maxStep = (int)Math.ceil(stripWidth*Math.tan(Math.toRadians(maxLocalAngle))) + 1;
+
+        List<double[]> points = new ArrayList<>();
+        points.add(new double[] {first*stripWidth + stripWidth/2.0, stave[2]});
+        for(int direction=-1; direction<=1; direction+=2) {
+            int previous = 0;
+            for(int k=first+direction; k>=0 && k<strips; k+=direction) {
+                int[] projection = projections[k];
+                int bestFound = 0;
+                long bestScore = 0;
+                int best = previous;
+                for(int shift=previous-maxStep; shift<=previous+maxStep; shift++) {
+                    long score = 0;
+                    int found = 0;
+                    for(double line : stave) {
+                        int row = (int)Math.round(line) + shift;
+                        if(row >= 0 && row < height && projection[row] > 0) {
+                            score += projection[row];
+                            found++;
+                        }
+                    }
+                    // the smallest change of the shift is kept when they're the same
+                    if(found >= minLinesFound && (found > bestFound || (found == bestFound && (score > bestScore
+                            || (score == bestScore && Math.abs(shift-previous) < Math.abs(best-previous)))))) {
+                        bestFound = found;
+                        bestScore = score;
+                        best = shift;
+                    }
+                }
+                if(bestFound > 0) {
+                    previous = best;
+                    points.add(new double[] {k*stripWidth + stripWidth/2.0, stave[2] + best});
+                }
+            }
+        }
+        return points;
+    }
+
+    /**
+     * Fit the rows of a stave, then fit them again without the strips further from the
+     * first fit than a quarter of the distance between two of its lines.
+     * @param points The column and the row of every strip the stave was found in
+     * @param stave The centre rows of the lines of the stave in the strip it was found in
+     * @return The coefficients of the quadratic of the column centred and divided by the width
+     */
+    private double[] fit(List<double[]> points, double[] stave) {
+        double[] coefficients = fit(points);
+        coefficients[3] = Double.NEGATIVE_INFINITY;
+        coefficients[4] = Double.POSITIVE_INFINITY;
+        double maxResidual = Math.max(1, (stave[4] - stave[0])/16);
+        List<double[]> kept = new ArrayList<>();
+        for(double[] point : points) {
+            if(Math.abs(evaluate(coefficients, point[0]) - point[1]) <= maxResidual) {
+                kept.add(point);
+            }
+        }
+        if(!kept.isEmpty() && kept.size() < points.size()) {
+            coefficients = fit(kept);
+        } else {
+            kept = points;
+        }
+        coefficients[3] = Double.POSITIVE_INFINITY;
+        coefficients[4] = Double.NEGATIVE_INFINITY;
+        coefficients[5] = stave[4] - stave[0];
+        for(double[] point : kept) {
+            coefficients[3] = Math.min(coefficients[3], point[0]);
+            coefficients[4] = Math.max(coefficients[4], point[0]);
+        }
+        return coefficients;
+    }
+
+    /**
+     * Fit the rows of a stave with a quadratic of the column by least squares, or a line
+     * or a constant if it was found in too few strips.
+     * @param points The column and the row of every strip the stave was found in
+     * @return The coefficients of the quadratic of the column centred and divided by the width,
+     * followed by room for the columns it applies to and the height of the stave
+     */
+    private double[] fit(List<double[]> points) {
+        int degree = Math.min(2, points.size()-1);
+        int size = degree+1;
+        // the normal equations
+        double[][] matrix = new double[size][size+1];
+        for(double[] point : points) {
+            double x = normalize(point[0]);
+            double[] powers = {1, x, x*x};
+            for(int i=0; i<size; i++) {
+                for(int j=0; j<size; j++) {
+                    matrix[i][j] += powers[i]*powers[j];
+                }
+                matrix[i][size] += powers[i]*point[1];
+            }
+        }
+        // Gaussian elimination with partial pivoting
+        for(int i=0; i<size; i++) {
+            int pivot = i;
+            for(int r=i+1; r<size; r++) {
+                if(Math.abs(matrix[r][i]) > Math.abs(matrix[pivot][i])) {
+                    pivot = r;
+                }
+            }
+            double[] swap = matrix[i];
+            matrix[i] = matrix[pivot];
+            matrix[pivot] = swap;
+            if(Math.abs(matrix[i][i]) < 1e-12) {
+                return new double[6];
+            }
+            for(int r=0; r<size; r++) {
+                if(r != i) {
+                    double factor = matrix[r][i]/matrix[i][i];
+                    for(int c=i; c<=size; c++) {
+                        matrix[r][c] -= factor*matrix[i][c];
+                    }
+                }
+            }
+        }
+        double[] coefficients = new double[6];
+        for(int i=0; i<size; i++) {
+            coefficients[i] = matrix[i][size]/matrix[i][i];
+        }
+        return coefficients;
+    }
+
+    /**
+     * Centre a column and divide it by the width of the image, so that the fit is well
+     * conditioned.
+     * @param x The column
+     * @return The normalized column
+     */
+    private double normalize(double x) {
+        return (x - image.getWidth()/2.0)/image.getWidth();
+    }
+
+    /**
+     * Get the row of the middle line of a stave at a column, the row at the first or last
+     * column it was found in outside them.
+     * @param coefficients The coefficients fitted and the columns they apply to
+     * @param x The column
+     * @return The row
+     */
+    private double evaluate(double[] coefficients, double x) {
+        double t = normalize(Math.max(coefficients[3], Math.min(coefficients[4], x)));
+        return coefficients[0] + coefficients[1]*t + coefficients[2]*t*t;
+    }
+
+    /**
+     * Make the straightened image: every pixel is taken from the same column of the image,
+     * shifted by the interpolation of the shifts of the staves above and below it. The band
+     * of rows nearest to each stave is made on its own thread.
+     * @param centres The row of every stave in the middle of the page, from the top
+     * @param columnShifts The shift of every column of every stave
+     * @return The straightened binary image
+     */
+    private BufferedImage straighten(double[] centres, double[][] columnShifts) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        BufferedImage straightened = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_BINARY);
+        byte[] bits = ((DataBufferByte)straightened.getRaster().getDataBuffer()).getData();
+        byte[] sourceBits = ((DataBufferByte)image.getRaster().getDataBuffer()).getData();
+        int scanlineStride = ((MultiPixelPackedSampleModel)straightened.getSampleModel()).getScanlineStride();
+        int sourceStride = ((MultiPixelPackedSampleModel)image.getSampleModel()).getScanlineStride();
+        // white, the bits are 0 for black and 1 for white
+        Arrays.fill(bits, (byte)0xFF);
+
+        int count = centres.length;
+
+        // the rows nearest to every stave
+        int[] bandStarts = new int[count+1];
+        for(int s=1; s<count; s++) {
+            bandStarts[s] = (int)Math.round((centres[s-1] + centres[s])/2);
+        }
+        bandStarts[count] = height;
+
+        IntStream.range(0, count).parallel().forEach(band -> {
+            for(int y=bandStarts[band]; y<bandStarts[band+1]; y++) {
+                // the staves above and below the row and how far it is between them
+                int above = y <= centres[0] ? 0 : count-1;
+                for(int s=0; s<count-1; s++) {
+                    if(y >= centres[s] && y < centres[s+1]) {
+                        above = s;
+                    }
+                }
+                int below = Math.min(count-1, y <= centres[0] ? 0 : above+1);
+                double weight = below == above ? 0 : (y - centres[above])/(centres[below] - centres[above]);
+                weight = Math.max(0, Math.min(1, weight));
+                for(int x=0; x<width; x++) {
+                    double shift = (1-weight)*columnShifts[above][x] + weight*columnShifts[below][x];
+                    int sourceY = y + (int)Math.round(shift);
+                    if(sourceY >= 0 && sourceY < height
+                            && (sourceBits[sourceY*sourceStride + (x>>3)] & (0x80 >>> (x&7))) == 0) {
+                        bits[y*scanlineStride + (x>>3)] &= ~(0x80 >>> (x&7));
+                    }
+                }
+            }
+        });
+        return straightened;
+    }
+}
@@ -24,18 +24,51 @@ public class Model
 	private List<Rectangle>	rects	= new ArrayList<>();
 
 	private BufferedImage	image	= null;
-	private ArrayList<BufferedImage> images = new ArrayList<>();
 
-	// data for displaying several stages overlapped for testing
-	private ArrayList<BufferedImage> imagesLayers = new ArrayList<>();
+	// pages with more pixels than this are binarized while they are decoded,
+	// a band of rows at a time
+	private long bandedDecodingThreshold = 50000000L;
+	private static final int decodingBandHeight = 512;
+
+	// pages are scaled down to this stave space before being deskewed, 0 to keep their size
+	private int targetStaveSpace = 0;
+	// the stave lines measured while the page was normalized, counted with the first stage,
+	// -1 if the page was not normalized
+	private int measuredLineThickness = -1;
+	private int measuredStaveSpace = -1;
+
+	// the search of the skew is skipped when the estimated skew is under this, in degrees, 0 to always search
+	private double skewEpsilon = 0;
+	// the angle is searched on the page downsampled by this first, 1 to search at full resolution
+	private int deskewPyramidFactor = 1;
+	// the staves are straightened one at a time after deskewing, for bent pages
+	private boolean localDeskew = false;
+	// the systems of the page are recognized at the same time
+	private boolean parallelSystems = false;
+
+	// data for displaying several stages overlapped for testing,
+	// the overlapped images are only made when displayed and the most recent ones are cached
+	private static final int layersCacheSize = 2;
+	private Map<Integer, BufferedImage> imagesLayers = new LinkedHashMap<Integer, BufferedImage>(4, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, BufferedImage> eldest) {
+			return size() > layersCacheSize;
+		}
+	};
 	private boolean layersDisplayed = false;
 	private int firstStageWithLayers = 2;
 	private int lastStageWithLayers = 4;
 
+	// images and projections of the finished stages,
+	// stages 1 and lastStageWithLayers are used again by later stages
+	private StageStore stageStore = new StageStore(StageStore.Retention.KEEP_ALL, 1, lastStageWithLayers);
+
+	// where the pixels and labels of the stages are kept
+	private RasterStore rasterStore = new RasterStore(RasterStore.Backend.HEAP);
+
 	// deskewing
 	private Deskewing deskewing;
 	private int[] histogram;
-	private ArrayList<int[]> histograms = new ArrayList<>();
 
 	// line removal
 	private LineRemoval lineRemoval;
@@ -48,12 +81,18 @@ public class Model
 	// connected component analysis
 	private CCA cca;
 	private Map<Integer, BoundingBox> labelToBoundingBox;
-	private int[][] components;
+	private LabelMatrix components;
 
 	private Recognizer recognizer;
+	private File outputFile = new File("output.xml");
+
+	// time, allocations and counts of the stages done
+	private List<StageMetrics> metrics = new ArrayList<>();
 
 	private int stage = 0;
 	private int stageDisplayed = stage;
+	// whether a stage is running, only one can run at once
+	private boolean processing = false;
 
 	private double scale = 1.0;
 
@@ -61,16 +100,46 @@ public class Model
 	 * Get the image to be displayed.
 	 * @return The image
 	 */
-	public BufferedImage getImage()
+	public synchronized BufferedImage getImage()
 	{
-		if(!layersDisplayed || stageDisplayed < firstStageWithLayers || stageDisplayed > lastStageWithLayers) {
-			if (stage == stageDisplayed) {
-				return image;
+		if(layersDisplayed && stageDisplayed >= firstStageWithLayers && stageDisplayed <= lastStageWithLayers) {
+			BufferedImage imageLayers = getImageLayers(stageDisplayed);
+			if(imageLayers != null) {
+				return imageLayers;
 			}
-			return images.get(stageDisplayed);
-		} else {
-			return imagesLayers.get(stageDisplayed - firstStageWithLayers);
 		}
+		if (stage == stageDisplayed) {
+			return image;
+		}
+		return stageStore.getImage(stageDisplayed);
+	}
+
+	/**
+	 * Get the image of a stage overlapped with the previous stage,
+	 * the changed pixels are set to a different color.
+	 * @param layersStage The stage
+	 * @return The overlapped image, or null if one of the stages was not kept
+	 */
+	private BufferedImage getImageLayers(int layersStage) {
+		BufferedImage imageLayers = imagesLayers.get(layersStage);
+		if(imageLayers != null) {
+			return imageLayers;
+		}
+
+		BufferedImage previousImage = stageStore.getImage(layersStage-1);
+		BufferedImage layersImage = layersStage == stage ? image : stageStore.getImage(layersStage);
+		if(previousImage == null || layersImage == null) {
+			return null;
+		}
+		imageLayers = LayerOverlay.overlay(previousImage, layersImage);
+
+		// mark the bar lines found in the stave lines removed stage, once they are all found
+		if(layersStage == firstStageWithLayers && barLines != null) {
+			lineRemoval.markBarLines(imageLayers, barLines);
+		}
+
+		imagesLayers.put(layersStage, imageLayers);
+		return imageLayers;
 	}
 
 	/**
@@ -155,32 +224,281 @@ public class Model
 		int numImages = newImageFile.getNumImages();
 		if (numImages == 0)
 			throw new IOException("Image file contains no images");
-		BufferedImage bi = newImageFile.getBufferedImage(0);
+		BufferedImage bi;
+		if ((long) newImageFile.getWidth(0) * newImageFile.getHeight(0) > bandedDecodingThreshold)
+			bi = newImageFile.getBinaryImage(0, Deskewing.binarizationThreshold, decodingBandHeight);
+		else
+			bi = newImageFile.getBufferedImage(0, ImageFile.ReadMode.GRAY);
+		if (targetStaveSpace > 0)
+		{
+			ScaleNormalization scaleNormalization = new ScaleNormalization(bi);
+			measuredLineThickness = scaleNormalization.getLineThickness();
+			measuredStaveSpace = scaleNormalization.getStaveSpace();
+			bi = scaleNormalization.normalize(targetStaveSpace);
+		}
+		else
+		{
+			measuredLineThickness = -1;
+			measuredStaveSpace = -1;
+		}
 		setImage(bi);
 
 		// clear data
 		stage = 0;
 		stageDisplayed = stage;
-		images.clear();
+		stageStore.clear();
 		imagesLayers.clear();
-		histograms.clear();
+		staves = null;
+		barLines = null;
+		verticalLines = null;
+		labelToBoundingBox = null;
+		components = null;
+		recognizer = null;
+		metrics = new ArrayList<>();
 
 		// initialize data
 		staveLineThreshold = image.getWidth()/2;
 		deskewing = new Deskewing(image, staveLineThreshold);
 		lineRemoval = new LineRemoval();
-		cca = new CCA();
+		cca = new CCA(rasterStore);
+	}
+
+	/**
+	 * Get the number of pixels from which a page is binarized while it's decoded.
+	 * @return The number of pixels
+	 */
+	public long getBandedDecodingThreshold() {
+		return bandedDecodingThreshold;
+	}
+
+	/**
+	 * Set the number of pixels from which a page is binarized while it's decoded,
+	 * a band of rows at a time, instead of being decoded in full first. It saves
+	 * the memory of the decoded page, but the page is deskewed from its binary
+	 * image instead of its grey values. It applies from the next image loaded.
+	 * @param bandedDecodingThreshold The number of pixels
+	 */
+	public void setBandedDecodingThreshold(long bandedDecodingThreshold) {
+		this.bandedDecodingThreshold = bandedDecodingThreshold;
+	}
+
+	/**
+	 * Get the stave space pages are scaled down to.
+	 * @return The stave space in pixels, 0 if pages keep their size
+	 */
+	public int getTargetStaveSpace() {
+		return targetStaveSpace;
+	}
+
+	/**
+	 * Set the stave space pages are scaled down to before being deskewed, see
+	 * <code>ScaleNormalization</code>. Pages whose stave space is smaller keep
+	 * their size. It applies from the next image loaded.
+	 * @param targetStaveSpace The stave space in pixels, 0 to keep the size of pages
+	 */
+	public void setTargetStaveSpace(int targetStaveSpace) {
+		this.targetStaveSpace = targetStaveSpace;
+	}
+
+	/**
+	 * Get the estimated skew under which deskewing doesn't search the angle.
+	 * @return The angle in degrees, 0 if the angle is always searched
+	 */
+	public double getSkewEpsilon() {
+		return skewEpsilon;
+	}
+
+	/**
+	 * Set the estimated skew under which deskewing doesn't search the angle
+	 * and only binarizes the page, see <code>Deskewing.setSkewEpsilon</code>.
+	 * @param skewEpsilon The angle in degrees, 0 to always search without estimating the skew
+	 */
+	public void setSkewEpsilon(double skewEpsilon) {
+		this.skewEpsilon = skewEpsilon;
+	}
+
+	/**
+	 * Get the factor the page is downsampled by to search the skew first.
+	 * @return The factor, 1 if the skew is searched at full resolution
+	 */
+	public int getDeskewPyramidFactor() {
+		return deskewPyramidFactor;
+	}
+
+	/**
+	 * Set the factor the page is downsampled by to search the skew first, see
+	 * <code>Deskewing.setPyramidFactor</code>.
+	 * @param deskewPyramidFactor The factor, 1 to search at full resolution
+	 */
+	public void setDeskewPyramidFactor(int deskewPyramidFactor) {
+		if(deskewPyramidFactor < 1) {
+			throw new IllegalArgumentException("The pyramid factor must be at least 1");
+		}
+		this.deskewPyramidFactor = deskewPyramidFactor;
+	}
+
+	/**
+	 * Check if the staves are straightened one at a time after deskewing.
+	 * @return True if they are
+	 */
+	public boolean isLocalDeskew() {
+		return localDeskew;
+	}
+
+	/**
+	 * Set if the staves are straightened one at a time after the page is
+	 * deskewed, for pages bent or photographed at an angle, see
+	 * <code>LocalDeskewing</code>.
+	 * @param localDeskew True to straighten them
+	 */
+	public void setLocalDeskew(boolean localDeskew) {
+		this.localDeskew = localDeskew;
+	}
+
+	/**
+	 * Check if the systems of the page are recognized at the same time.
+	 * @return True if they are
+	 */
+	public boolean isParallelSystems() {
+		return parallelSystems;
+	}
+
+	/**
+	 * Set if the systems of the page are recognized at the same time, see
+	 * <code>Recognizer.setParallelSystems</code>.
+	 * @param parallelSystems True to recognize them at the same time
+	 */
+	public void setParallelSystems(boolean parallelSystems) {
+		this.parallelSystems = parallelSystems;
+	}
+
+	/**
+	 * Get the store creating the images and the label matrix of the stages.
+	 * @return The raster store
+	 */
+	public RasterStore getRasterStore() {
+		return rasterStore;
+	}
+
+	/**
+	 * Set the store creating the images and the label matrix of the stages.
+	 * It applies from the next image loaded.
+	 * @param rasterStore The raster store
+	 */
+	public void setRasterStore(RasterStore rasterStore) {
+		this.rasterStore = rasterStore;
+	}
+
+	/**
+	 * Get the file the MusicXML is written to when the symbols are recognized.
+	 * @return The output file, or null if it's not written
+	 */
+	public File getOutputFile() {
+		return outputFile;
+	}
+
+	/**
+	 * Set the file the MusicXML is written to when the symbols are recognized.
+	 * @param outputFile The output file, or null to only write it with <code>generateXML</code>
+	 */
+	public void setOutputFile(File outputFile) {
+		this.outputFile = outputFile;
+	}
+
+	/**
+	 * Write the MusicXML of the recognized symbols.
+	 * @param file The file to be written
+	 * @throws IOException if the file could not be written in full
+	 * @throws IllegalStateException if the symbols have not been recognized yet
+	 */
+	public void generateXML(File file) throws IOException {
+		if(recognizer == null) {
+			throw new IllegalStateException("The symbols have not been recognized");
+		}
+		recognizer.generateXML(file);
+	}
+
+	/**
+	 * Get a summary of the results of the stages done so far: the number of
+	 * staves, the stave space width and the number of lines and components found.
+	 * @return The summary
+	 */
+	public Properties getSummary() {
+		Properties summary = new Properties();
+		summary.setProperty("width", Integer.toString(image.getWidth()));
+		summary.setProperty("height", Integer.toString(image.getHeight()));
+		summary.setProperty("stages", Integer.toString(stage));
+		if(staves != null) {
+			summary.setProperty("staves", Integer.toString(staves.size()));
+			summary.setProperty("staveSpaceWidth", Integer.toString(staveSpaceWidth));
+		}
+		if(barLines != null) {
+			summary.setProperty("barLines", Integer.toString(barLines.size()));
+			summary.setProperty("verticalLines", Integer.toString(verticalLines.size()));
+		}
+		if(labelToBoundingBox != null) {
+			summary.setProperty("components", Integer.toString(labelToBoundingBox.size()));
+		}
+		return summary;
+	}
+
+	/**
+	 * Get the results of the stages before symbol recognition, so that it can
+	 * be run again on its own.
+	 * @return The snapshot
+	 * @throws IllegalStateException if the bounding boxes have not been found yet
+	 */
+	public StageSnapshot getSnapshot() {
+		if(labelToBoundingBox == null) {
+			throw new IllegalStateException("The bounding boxes have not been found");
+		}
+		return new StageSnapshot(staves, barLines, verticalLines, staveSpaceWidth,
+				labelToBoundingBox.values(), components);
+	}
+
+	/**
+	 * Get the time, the allocations and the counts of the stages done.
+	 * @return The metrics of the stages, in the order they were done
+	 */
+	public synchronized List<StageMetrics> getMetrics() {
+		return Collections.unmodifiableList(new ArrayList<>(metrics));
+	}
+
+	/**
+	 * Get the JSON report of the metrics of the stages done.
+	 * @param name The name of the page
+	 * @return The JSON report
+	 */
+	public String getMetricsJson(String name) {
+		return StageMetrics.toJson(name, getMetrics());
 	}
 
 	/**
 	 * Get the horizontal projection.
 	 * @return The horizontal projection
 	 */
-	public int[] getHistogram() {
+	public synchronized int[] getHistogram() {
 		if(stage == stageDisplayed) {
 			return histogram;
 		}
-		return histograms.get(stageDisplayed);
+		return stageStore.getHistogram(stageDisplayed);
+	}
+
+	/**
+	 * Get the retention policy for the images of the finished stages.
+	 * @return The retention policy
+	 */
+	public StageStore.Retention getRetention() {
+		return stageStore.getRetention();
+	}
+
+	/**
+	 * Set the retention policy for the images of the finished stages.
+	 * It applies to the stages finished from now on.
+	 * @param retention The retention policy
+	 */
+	public void setRetention(StageStore.Retention retention) {
+		stageStore.setRetention(retention);
 	}
 
 	/**
@@ -220,7 +538,7 @@ public class Model
 						break;
 				}
 
-				if(pixel == ColorOperations.black()) {
+				if(pixel == ColorOperations.BLACK) {
 					projection[x]++;
 				}
 			}
@@ -233,77 +551,179 @@ public class Model
 	 * Go to the next stage of image processing.
 	 */
 	public void processImage() {
-		images.add(image);
-		histograms.add(histogram);
+		processImage(null);
+	}
+
+	/**
+	 * Go to the next stage of image processing, reporting its progress.
+	 * <p>
+	 * The stage can run on a background thread while the current stage is
+	 * being displayed: the model only changes once the stage is finished. If
+	 * the stage is cancelled, through its thread being interrupted, the model
+	 * stays at the current stage and the stage can be run again.
+	 * </p>
+	 * @param listener The listener notified of the progress, or null
+	 * @throws java.util.concurrent.CancellationException if the stage was cancelled
+	 * @throws IllegalStateException if a stage is already running
+	 */
+	public void processImage(ProgressListener listener) {
+		synchronized(this) {
+			if(processing) {
+				throw new IllegalStateException("A stage is already running");
+			}
+			processing = true;
+		}
+		try {
+			processStage(listener);
+		} finally {
+			synchronized(this) {
+				processing = false;
+			}
+		}
+	}
+
+	/**
+	 * Run the next stage of image processing.
+	 * @param listener The listener notified of the progress, or null
+	 */
+	private void processStage(ProgressListener listener) {
+		Progress progress = new Progress(listener);
+		StageMetrics stageMetrics = new StageMetrics(stage, getStageDescription(stage+1));
+		StageEvent stageEvent = new StageEvent();
+		stageEvent.begin();
+		String operation;
+		synchronized(this) {
+			// a cancelled run has already kept the current stage
+			if(!stageStore.isAvailable(stage)) {
+				stageStore.put(stage, image, histogram);
+			}
+		}
 
 		// create a new image
 		int imageType = stage < lastStageWithLayers ? BufferedImage.TYPE_BYTE_BINARY : BufferedImage.TYPE_INT_RGB;
-		BufferedImage newImage = new BufferedImage(image.getWidth(), image.getHeight(), imageType);
-		for(int i=0; i<image.getWidth(); i++) {
-			for(int j=0; j<image.getHeight(); j++) {
+		BufferedImage newImage = rasterStore.createImage(image.getWidth(), image.getHeight(), imageType);
+		progress.setTask("Copying the image");
+		for(int j=0; j<image.getHeight(); j++) {
+			progress.update(j, image.getHeight());
+			for(int i=0; i<image.getWidth(); i++) {
 				newImage.setRGB(i, j, image.getRGB(i, j));
 			}
 		}
 
+		deskewing.setProgress(progress);
+		lineRemoval.setProgress(progress);
+		cca.setProgress(progress);
+
 		switch(stage) {
 			case 0:
+				operation = "Deskewing.deskew";
+				deskewing.setSkewEpsilon(skewEpsilon);
+				deskewing.setPyramidFactor(deskewPyramidFactor);
 				deskewing.deskew();
 				newImage = deskewing.getImage();
+				stageMetrics.count("anglesTried", deskewing.getAnglesTried());
+				stageMetrics.count("skipped", deskewing.isSkipped() ? 1 : 0);
+				if(!Double.isNaN(deskewing.getEstimatedAngle())) {
+					// counts are whole numbers, so the angle is counted in hundredths of a degree
+					stageMetrics.count("estimatedAngleHundredths", Math.round(100*deskewing.getEstimatedAngle()));
+				}
+				if(!Double.isNaN(deskewing.getCoarseAngle())) {
+					stageMetrics.count("coarseAngleHundredths", Math.round(100*deskewing.getCoarseAngle()));
+				}
+				if(measuredStaveSpace >= 0) {
+					stageMetrics.count("lineThickness", measuredLineThickness);
+					stageMetrics.count("staveSpace", measuredStaveSpace);
+				}
+				if(localDeskew) {
+					LocalDeskewing localDeskewing = new LocalDeskewing(newImage);
+					localDeskewing.setProgress(progress);
+					localDeskewing.deskew();
+					newImage = localDeskewing.getImage();
+					stageMetrics.count("stavesStraightened", localDeskewing.getStaves());
+					stageMetrics.count("maxLocalShift", localDeskewing.getMaxShift());
+				}
 				break;
 			case 1:
+				operation = "LineRemoval.removeStave";
 				lineRemoval.removeStave(newImage, histogram, staveLineThreshold);
 				staves = lineRemoval.getStaves();
 				staveSpaceWidth = lineRemoval.getStaveSpaceWidth();
+				stageMetrics.count("staveLines", lineRemoval.getStaveLines().size());
+				stageMetrics.count("staves", staves.size());
+				stageMetrics.count("staveSpaceWidth", staveSpaceWidth);
 				break;
 			case 2:
-				lineRemoval.removeVerticalLines(newImage, imagesLayers.get(0));
-				barLines = lineRemoval.getBarLines();
+				operation = "LineRemoval.removeVerticalLines";
+				lineRemoval.removeVerticalLines(newImage);
+				// a copy, so that the layers painted while a stage runs never see the
+				// list the line removal fills
+				synchronized(this) {
+					barLines = new ArrayList<>(lineRemoval.getBarLines());
+				}
 				verticalLines = lineRemoval.getVerticalLines();
+				stageMetrics.count("barLines", barLines.size());
+				stageMetrics.count("verticalLines", verticalLines.size());
 				break;
 			case 3:
-				lineRemoval.patch(images.get(1), newImage);
+				operation = "LineRemoval.patch";
+				lineRemoval.patch(stageStore.getImage(1), newImage);
 				break;
 			case 4:
+				operation = "CCA.collectComponents";
 				cca.collectComponents(newImage);
+				stageMetrics.count("labelsCreated", cca.getLabelsCreated());
+				stageMetrics.count("equivalenceMerges", cca.getEquivalenceMerges());
 				break;
 			case 5:
+				operation = "CCA.resolveEquivalences";
 				cca.resolveEquivalences(newImage);
 				components = cca.getComponents();
 				break;
 			case 6:
+				operation = "CCA.getBoundingBoxes";
+				// the components recognition would discard get no bounding box, a page
+				// without staves keeps them all
+				cca.setComponentFilter(staves.isEmpty() ? null
+						: Recognizer.createComponentFilter(staves, staveSpaceWidth));
 				labelToBoundingBox = cca.getBoundingBoxes();
 				cca.drawBoundingBoxes(newImage);
+				stageMetrics.count("components", labelToBoundingBox.size());
+				stageMetrics.count("componentsFiltered", cca.getComponentsFiltered());
 				break;
 			case 7:
-				recognizer = new Recognizer(staves, barLines, verticalLines,
+				operation = "Recognizer.recognize";
+				Recognizer newRecognizer = new Recognizer(staves, barLines, verticalLines,
 						staveSpaceWidth, labelToBoundingBox.values(), components);
-				recognizer.recognize(newImage, images.get(lastStageWithLayers), images.get(1));
-				recognizer.generateXML();
+				newRecognizer.setProgress(progress);
+				newRecognizer.setParallelSystems(parallelSystems);
+				newRecognizer.recognize(newImage, stageStore.getImage(lastStageWithLayers), stageStore.getImage(1));
+				recognizer = newRecognizer;
+				for(Map.Entry<String, Integer> count : recognizer.getSymbolCounts().entrySet()) {
+					stageMetrics.count(count.getKey(), count.getValue());
+				}
+				if(outputFile != null) {
+					// the symbols stay recognized if the file can't be written
+					try {
+						recognizer.generateXML(outputFile);
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
 				break;
 			default:
 				return;
 		}
 
-		setImage(newImage);
-		stage++;
-		stageDisplayed = stage;
-
-		// overlap the stages for testing
-		if(stage >= firstStageWithLayers && stage <= lastStageWithLayers) {
-			BufferedImage previousImage = images.get(stage-1);
-
-			// set the changed pixels to a different color
-			BufferedImage imageLayers = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
-			for (int i = 0; i < image.getWidth(); i++) {
-				for (int j = 0; j < image.getHeight(); j++) {
-					imageLayers.setRGB(i, j, previousImage.getRGB(i, j));
-					if (image.getRGB(i, j) != previousImage.getRGB(i, j)) {
-						imageLayers.setRGB(i, j, ColorOperations.colorToRgb(255, 0, 0));
-					}
-				}
-			}
+		stageMetrics.stop();
+		stageEvent.report(stage, operation, newImage.getWidth(), newImage.getHeight());
 
-			imagesLayers.add(imageLayers);
+		// the stage is finished, make it the current one
+		synchronized(this) {
+			metrics.add(stageMetrics);
+			setImage(newImage);
+			stage++;
+			stageDisplayed = stage;
+			imagesLayers.clear();
 		}
 	}
 
@@ -323,21 +743,45 @@ public class Model
 		this.scale = scale;
 	}
 
+	/**
+	 * Get the number of stages of image processing done.
+	 * @return The current stage
+	 */
+	public int getStage() {
+		return stage;
+	}
+
+	/**
+	 * Get the stage being displayed.
+	 * @return The displayed stage
+	 */
+	public int getStageDisplayed() {
+		return stageDisplayed;
+	}
+
 	/**
 	 * Display the previous stage.
 	 */
-	public void displayPrevious() {
-		if(stageDisplayed > 0) {
-			stageDisplayed--;
+	public synchronized void displayPrevious() {
+		// skip the stages that were not kept
+		for(int previous = stageDisplayed-1; previous >= 0; previous--) {
+			if(stageStore.isAvailable(previous)) {
+				stageDisplayed = previous;
+				return;
+			}
 		}
 	}
 
 	/**
 	 * Display the next stage.
 	 */
-	public void displayNext() {
-		if(stageDisplayed < stage) {
-			stageDisplayed++;
+	public synchronized void displayNext() {
+		// skip the stages that were not kept
+		for(int next = stageDisplayed+1; next <= stage; next++) {
+			if(next == stage || stageStore.isAvailable(next)) {
+				stageDisplayed = next;
+				return;
+			}
 		}
 	}
 
@@ -353,7 +797,16 @@ public class Model
 	 * @return The description of the current stage
 	 */
 	public String getStageDescription() {
-		switch(stageDisplayed) {
+		return getStageDescription(stageDisplayed);
+	}
+
+	/**
+	 * Get the description of a stage.
+	 * @param stage The number of stages done
+	 * @return The description of the stage
+	 */
+	private static String getStageDescription(int stage) {
+		switch(stage) {
 			case 1:
 				return "Image straightened";
 			case 2:
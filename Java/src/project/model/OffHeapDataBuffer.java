@@ -0,0 +1,56 @@
+package project.model;
+
+import java.awt.image.DataBuffer;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * A data buffer whose elements are kept outside of the Java heap, in direct or
+ * memory-mapped byte buffers. The buffers are split into segments so that
+ * rasters bigger than a single buffer can be stored.
+ */
+class OffHeapDataBuffer extends DataBuffer {
+    // number of elements in a segment
+    static final int SEGMENT_BITS = 28;
+    static final int SEGMENT_MASK = (1 << SEGMENT_BITS) - 1;
+
+    private ByteBuffer[] byteSegments;
+    private IntBuffer[] intSegments;
+
+    /**
+     * Create a data buffer of bytes.
+     * @param segments The buffers holding the elements
+     * @param size The number of elements
+     */
+    OffHeapDataBuffer(ByteBuffer[] segments, int size) {
+        super(TYPE_BYTE, size);
+        byteSegments = segments;
+    }
+
+    /**
+     * Create a data buffer of ints.
+     * @param segments The buffers holding the elements
+     * @param size The number of elements
+     */
+    OffHeapDataBuffer(IntBuffer[] segments, int size) {
+        super(TYPE_INT, size);
+        intSegments = segments;
+    }
+
+    @Override
+    public int getElem(int bank, int i) {
+        if(intSegments != null) {
+            return intSegments[i >>> SEGMENT_BITS].get(i & SEGMENT_MASK);
+        }
+        return byteSegments[i >>> SEGMENT_BITS].get(i & SEGMENT_MASK) & 0xFF;
+    }
+
+    @Override
+    public void setElem(int bank, int i, int val) {
+        if(intSegments != null) {
+            intSegments[i >>> SEGMENT_BITS].put(i & SEGMENT_MASK, val);
+        } else {
+            byteSegments[i >>> SEGMENT_BITS].put(i & SEGMENT_MASK, (byte)val);
+        }
+    }
+}
@@ -0,0 +1,555 @@
+package project.model;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Recognizes the music of several pages, running the stages of different pages at the same time.
+ * <p>
+ * Every stage has its own worker threads and passes the pages on to the next stage through a small
+ * bounded queue, so that reading the next page and writing the previous one overlap with the
+ * recognition of the current one, while only a few pages are kept in memory at once.
+ * </p>
+ */
+public class Pipeline {
+    /**
+     * The stages of the pipeline.
+     */
+    public enum Stage {
+        DECODE,
+        DESKEW,
+        LINE_REMOVAL,
+        CCA,
+        RECOGNITION,
+        SERIALIZATION
+    }
+
+    /**
+     * A page going through the pipeline.
+     */
+    public static class Page {
+        private final File input;
+        private final File output;
+        private File snapshot;
+        private File metrics;
+        private Model model;
+        private List<StageMetrics> stageMetrics;
+        private String key;
+        private boolean cached = false;
+        private Throwable error;
+
+        /**
+         * Create a new page.
+         * @param input The image file
+         * @param output The MusicXML file
+         */
+        private Page(File input, File output) {
+            this.input = input;
+            this.output = output;
+        }
+
+        /**
+         * Get the image file.
+         * @return The image file
+         */
+        public File getInput() {
+            return input;
+        }
+
+        /**
+         * Get the MusicXML file.
+         * @return The MusicXML file
+         */
+        public File getOutput() {
+            return output;
+        }
+
+        /**
+         * Check if the MusicXML was taken from the result cache.
+         * @return True if the page was not recognized again
+         */
+        public boolean isCached() {
+            return cached;
+        }
+
+        /**
+         * Get the time, the allocations and the counts of the stages of the page.
+         * @return The metrics of the stages, or null if the page was not written or was cached
+         */
+        public List<StageMetrics> getStageMetrics() {
+            return stageMetrics;
+        }
+
+        /**
+         * Get the error that stopped the page.
+         * @return The error, or null if the page was recognized
+         */
+        public Throwable getError() {
+            return error;
+        }
+    }
+
+    // passed on after the last page
+    private static final Page END = new Page(null, null);
+
+    private Map<Stage, Integer> workers = new EnumMap<>(Stage.class);
+    private int queueCapacity = 2;
+    private ResultCache resultCache;
+    private File snapshotDirectory;
+    private File metricsDirectory;
+    private int targetStaveSpace = 0;
+    private double skewEpsilon = 0;
+    private int deskewPyramidFactor = 1;
+    private boolean localDeskew = false;
+    private boolean parallelSystems = false;
+    private RasterStore.Backend rasterStoreBackend = RasterStore.Backend.HEAP;
+
+    /**
+     * Create a new pipeline with one worker for each stage.
+     */
+    public Pipeline() {
+        for(Stage stage : Stage.values()) {
+            workers.put(stage, 1);
+        }
+    }
+
+    /**
+     * Get the number of workers of a stage.
+     * @param stage The stage
+     * @return The number of workers
+     */
+    public int getWorkers(Stage stage) {
+        return workers.get(stage);
+    }
+
+    /**
+     * Set the number of workers of a stage.
+     * @param stage The stage
+     * @param count The number of workers, at least 1
+     */
+    public void setWorkers(Stage stage, int count) {
+        if(count < 1) {
+            throw new IllegalArgumentException("A stage needs at least one worker");
+        }
+        workers.put(stage, count);
+    }
+
+    /**
+     * Get the number of pages that can wait between two stages.
+     * @return The capacity of the queues
+     */
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * Set the number of pages that can wait between two stages.
+     * @param queueCapacity The capacity of the queues, at least 1
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        if(queueCapacity < 1) {
+            throw new IllegalArgumentException("The queues must hold at least one page");
+        }
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Get the cache of the pages already recognized.
+     * @return The result cache, or null if not used
+     */
+    public ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Set the cache of the pages already recognized, a page found in the cache
+     * is written right after being decoded and skips the other stages.
+     * @param resultCache The result cache, or null to recognize every page
+     */
+    public void setResultCache(ResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * Get the directory the snapshots of the pages are written to.
+     * @return The snapshot directory, or null if they are not written
+     */
+    public File getSnapshotDirectory() {
+        return snapshotDirectory;
+    }
+
+    /**
+     * Set the directory the snapshots of the pages are written to once their
+     * components are labelled, with the name of the image file. Symbol recognition
+     * can then be run again on them, see <code>StageSnapshot</code>.
+     * @param snapshotDirectory The snapshot directory, or null to not write them
+     */
+    public void setSnapshotDirectory(File snapshotDirectory) {
+        this.snapshotDirectory = snapshotDirectory;
+    }
+
+    /**
+     * Get the directory the metrics of the pages are written to.
+     * @return The metrics directory, or null if they are not written
+     */
+    public File getMetricsDirectory() {
+        return metricsDirectory;
+    }
+
+    /**
+     * Set the directory the JSON reports of the metrics of the pages are written to,
+     * with the name of the image file. Pages taken from the result cache have no report.
+     * @param metricsDirectory The metrics directory, or null to not write them
+     */
+    public void setMetricsDirectory(File metricsDirectory) {
+        this.metricsDirectory = metricsDirectory;
+    }
+
+    /**
+     * Get the stave space the pages are scaled down to.
+     * @return The stave space in pixels, 0 if the pages keep their size
+     */
+    public int getTargetStaveSpace() {
+        return targetStaveSpace;
+    }
+
+    /**
+     * Set the stave space the pages are scaled down to before being deskewed,
+     * see <code>Model.setTargetStaveSpace</code>.
+     * @param targetStaveSpace The stave space in pixels, 0 to keep the size of the pages
+     */
+    public void setTargetStaveSpace(int targetStaveSpace) {
+        this.targetStaveSpace = targetStaveSpace;
+    }
+
+    /**
+     * Get the estimated skew under which the pages are not deskewed.
+     * @return The angle in degrees, 0 if every page is deskewed
+     */
+    public double getSkewEpsilon() {
+        return skewEpsilon;
+    }
+
+    /**
+     * Set the estimated skew under which the pages are only binarized instead of being
+     * deskewed, see <code>Model.setSkewEpsilon</code>. The metrics of the deskewing stage
+     * count the pages skipped.
+     * @param skewEpsilon The angle in degrees, 0 to deskew every page
+     */
+    public void setSkewEpsilon(double skewEpsilon) {
+        this.skewEpsilon = skewEpsilon;
+    }
+
+    /**
+     * Get the factor the pages are downsampled by to search their skew first.
+     * @return The factor, 1 if the skew is searched at full resolution
+     */
+    public int getDeskewPyramidFactor() {
+        return deskewPyramidFactor;
+    }
+
+    /**
+     * Set the factor the pages are downsampled by to search their skew first,
+     * see <code>Deskewing.setPyramidFactor</code>.
+     * @param deskewPyramidFactor The factor, 1 to search at full resolution
+     */
+    public void setDeskewPyramidFactor(int deskewPyramidFactor) {
+        if(deskewPyramidFactor < 1) {
+            throw new IllegalArgumentException("The pyramid factor must be at least 1");
+        }
+        this.deskewPyramidFactor = deskewPyramidFactor;
+    }
+
+    /**
+     * Check if the staves of the pages are straightened one at a time after deskewing.
+     * @return True if they are
+     */
+    public boolean isLocalDeskew() {
+        return localDeskew;
+    }
+
+    /**
+     * Set if the staves of the pages are straightened one at a time after deskewing,
+     * see <code>LocalDeskewing</code>.
+     * @param localDeskew True to straighten them
+     */
+    public void setLocalDeskew(boolean localDeskew) {
+        this.localDeskew = localDeskew;
+    }
+
+    /**
+     * Check if the systems of every page are recognized at the same time.
+     * @return True if they are
+     */
+    public boolean isParallelSystems() {
+        return parallelSystems;
+    }
+
+    /**
+     * Set if the systems of every page are recognized at the same time, see
+     * <code>Recognizer.setParallelSystems</code>.
+     * @param parallelSystems True to recognize them at the same time
+     */
+    public void setParallelSystems(boolean parallelSystems) {
+        this.parallelSystems = parallelSystems;
+    }
+
+    /**
+     * Get where the images and the label matrix of the stages of every page are kept.
+     * @return The backend of the raster stores
+     */
+    public RasterStore.Backend getRasterStoreBackend() {
+        return rasterStoreBackend;
+    }
+
+    /**
+     * Set where the images and the label matrix of the stages of every page are kept,
+     * see <code>RasterStore</code>.
+     * @param rasterStoreBackend The backend of the raster stores
+     */
+    public void setRasterStoreBackend(RasterStore.Backend rasterStoreBackend) {
+        this.rasterStoreBackend = rasterStoreBackend;
+    }
+
+    /**
+     * Recognize the pages, the MusicXML of each page is written to the output directory
+     * with the name of the image file. A page that fails doesn't stop the others.
+     * @param inputs The image files
+     * @param outputDirectory The directory for the MusicXML files
+     * @return The pages, in the order of the image files
+     * @throws InterruptedException if interrupted while waiting for the pages
+     */
+    public List<Page> run(List<File> inputs, File outputDirectory) throws InterruptedException {
+        return run(inputs, null, outputDirectory);
+    }
+
+    /**
+     * Recognize the pages of a directory tree, the MusicXML of each page is written to the
+     * output directory with the path of the image file relative to the input directory, so
+     * that pages of the same name in different directories are kept apart. The snapshots
+     * and the metrics are named the same way. A page that fails doesn't stop the others.
+     * @param inputs The image files
+     * @param inputDirectory The directory the image files are in, or null to only use their names
+     * @param outputDirectory The directory for the MusicXML files
+     * @return The pages, in the order of the image files
+     * @throws InterruptedException if interrupted while waiting for the pages
+     */
+    public List<Page> run(List<File> inputs, File inputDirectory, File outputDirectory)
+            throws InterruptedException {
+        List<Page> pages = new ArrayList<>();
+        for(File input : inputs) {
+            String name = getName(input, inputDirectory);
+            Page page = new Page(input, createFile(outputDirectory, name + ".xml"));
+            if(snapshotDirectory != null) {
+                page.snapshot = createFile(snapshotDirectory, name + ".snapshot");
+            }
+            if(metricsDirectory != null) {
+                page.metrics = createFile(metricsDirectory, name + ".json");
+            }
+            pages.add(page);
+        }
+
+        // a queue before every stage and one after the last stage
+        Stage[] stages = Stage.values();
+        List<BlockingQueue<Page>> queues = new ArrayList<>();
+        for(int i=0; i<=stages.length; i++) {
+            queues.add(new ArrayBlockingQueue<>(queueCapacity));
+        }
+
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            for(int i=0; i<stages.length; i++) {
+                Stage stage = stages[i];
+                BlockingQueue<Page> input = queues.get(i);
+                BlockingQueue<Page> output = queues.get(i+1);
+                AtomicInteger running = new AtomicInteger(workers.get(stage));
+                for(int j=0; j<workers.get(stage); j++) {
+                    executor.execute(() -> work(stage, input, output, running));
+                }
+            }
+
+            // feed the pages from another thread, so that the finished pages are taken while
+            // pages are still waiting to be decoded and the queues cannot all fill up
+            BlockingQueue<Page> first = queues.get(0);
+            executor.execute(() -> {
+                try {
+                    for(Page page : pages) {
+                        first.put(page);
+                    }
+                    first.put(END);
+                } catch (InterruptedException e) {
+                    // the pipeline was stopped
+                }
+            });
+
+            // wait for the last page to be written
+            BlockingQueue<Page> finished = queues.get(stages.length);
+            while(finished.take() != END) {
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return pages;
+    }
+
+    /**
+     * Process the pages of a stage until the end of the pages.
+     * @param stage The stage
+     * @param input The queue of the pages waiting for the stage
+     * @param output The queue of the next stage
+     * @param running The number of workers of the stage still running
+     */
+    private void work(Stage stage, BlockingQueue<Page> input, BlockingQueue<Page> output, AtomicInteger running) {
+        try {
+            while(true) {
+                Page page = input.take();
+                if(page == END) {
+                    // let the other workers of the stage see the end, the last one passes it on
+                    if(running.decrementAndGet() == 0) {
+                        output.put(END);
+                    } else {
+                        input.put(END);
+                    }
+                    return;
+                }
+
+                if(page.error == null && !page.cached) {
+                    try {
+                        process(stage, page);
+                    } catch (Throwable e) {
+                        page.error = e;
+                        page.model = null;
+                    }
+                }
+                output.put(page);
+            }
+        } catch (InterruptedException e) {
+            // the pipeline was stopped
+        }
+    }
+
+    /**
+     * Get the options of the pipeline that change the result of a page, for the key of the
+     * result cache.
+     * @return The options
+     */
+    private String getOptions() {
+        return "targetStaveSpace=" + targetStaveSpace +
+                ";skewEpsilon=" + skewEpsilon +
+                ";deskewPyramidFactor=" + deskewPyramidFactor +
+                ";localDeskew=" + localDeskew +
+                ";parallelSystems=" + parallelSystems;
+    }
+
+    /**
+     * Run a stage on a page.
+     * @param stage The stage
+     * @param page The page
+     * @throws Exception if the stage fails
+     */
+    private void process(Stage stage, Page page) throws Exception {
+        switch(stage) {
+            case DECODE:
+                page.model = new Model();
+                page.model.setRetention(StageStore.Retention.KEEP_REQUIRED);
+                page.model.setOutputFile(null);
+                page.model.setTargetStaveSpace(targetStaveSpace);
+                page.model.setSkewEpsilon(skewEpsilon);
+                page.model.setDeskewPyramidFactor(deskewPyramidFactor);
+                page.model.setLocalDeskew(localDeskew);
+                page.model.setParallelSystems(parallelSystems);
+                page.model.setRasterStore(new RasterStore(rasterStoreBackend));
+                page.model.loadImage(page.input);
+                if(resultCache != null) {
+                    page.key = ResultCache.key(page.model.getImage(), getOptions());
+                    if(resultCache.get(page.key, page.output)) {
+                        page.cached = true;
+                        page.model = null;
+                    }
+                }
+                break;
+            case DESKEW:
+                processUntil(page.model, 1);
+                break;
+            case LINE_REMOVAL:
+                // stave lines, vertical lines and patching up
+                processUntil(page.model, 4);
+                break;
+            case CCA:
+                // components, label equivalences and bounding boxes
+                processUntil(page.model, 7);
+                if(page.snapshot != null) {
+                    page.model.getSnapshot().write(page.snapshot);
+                }
+                break;
+            case RECOGNITION:
+                processUntil(page.model, 8);
+                break;
+            case SERIALIZATION:
+                // throws if the page is not written in full, so only a written page is cached
+                page.model.generateXML(page.output);
+                if(resultCache != null) {
+                    resultCache.put(page.key, page.output, page.model.getSummary());
+                }
+                page.stageMetrics = page.model.getMetrics();
+                if(page.metrics != null) {
+                    Files.write(page.metrics.toPath(),
+                            page.model.getMetricsJson(page.input.getName()).getBytes(StandardCharsets.UTF_8));
+                }
+                page.model = null;
+                break;
+        }
+    }
+
+    /**
+     * Get the name of the files written for an image file.
+     * @param input The image file
+     * @param inputDirectory The directory the image file is in, or null to only use its name
+     * @return The name without extension, with the path relative to the input directory
+     */
+    private static String getName(File input, File inputDirectory) {
+        String name = input.getName();
+        if(inputDirectory != null) {
+            name = inputDirectory.toPath().relativize(input.toPath()).toString();
+        }
+        int extension = name.lastIndexOf('.');
+        if(extension > name.lastIndexOf(File.separatorChar) + 1) {
+            name = name.substring(0, extension);
+        }
+        return name;
+    }
+
+    /**
+     * Get a file in a directory, creating the subdirectories of its name.
+     * @param directory The directory
+     * @param name The name of the file, possibly with subdirectories
+     * @return The file
+     */
+    private static File createFile(File directory, String name) {
+        File file = new File(directory, name);
+        file.getParentFile().mkdirs();
+        return file;
+    }
+
+    /**
+     * Run the stages of image processing of a model.
+     * @param model The model
+     * @param stage The number of stages that should be done
+     */
+    private static void processUntil(Model model, int stage) {
+        while(model.getStage() < stage) {
+            model.processImage();
+        }
+    }
+}
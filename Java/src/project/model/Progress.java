@@ -0,0 +1,78 @@
+package project.model;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Reports the progress of a stage of image processing to a listener and
+ * checks if the stage should stop.
+ * <p>
+ * A stage is cancelled either by calling <code>cancel</code> or by
+ * interrupting the thread it runs on, the one creating the progress. The
+ * check is cooperative: the stage stops the next time it reports its
+ * progress, also from the threads that part of a stage is shared out to.
+ * </p>
+ */
+public class Progress {
+    private ProgressListener listener;
+    private String task = "";
+    private volatile boolean cancelled = false;
+    // the thread running the stage, which is interrupted to cancel it
+    private final Thread owner = Thread.currentThread();
+
+    // the last reported percentage, so that the listener is not called for every row
+    private int lastPercentage = -1;
+
+    /**
+     * Create a new instance.
+     * @param listener The listener, or null if the progress is not reported
+     */
+    public Progress(ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Start a new task.
+     * @param task The description of the work being done
+     */
+    public synchronized void setTask(String task) {
+        this.task = task;
+        lastPercentage = -1;
+    }
+
+    /**
+     * Report the progress of the current task.
+     * @param done The amount of work done so far
+     * @param total The total amount of work
+     * @throws CancellationException if the stage was cancelled
+     */
+    public void update(int done, int total) {
+        if(isCancelled()) {
+            throw new CancellationException(task + " cancelled");
+        }
+
+        if(listener != null && total > 0) {
+            int percentage = (int)(100L*done/total);
+            synchronized(this) {
+                if(percentage != lastPercentage) {
+                    lastPercentage = percentage;
+                    listener.progressMade(task, done, total);
+                }
+            }
+        }
+    }
+
+    /**
+     * Ask the stage to stop.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Check if the stage should stop.
+     * @return True if cancelled or if the thread of the stage or this thread was interrupted
+     */
+    public boolean isCancelled() {
+        return cancelled || owner.isInterrupted() || Thread.currentThread().isInterrupted();
+    }
+}
@@ -0,0 +1,14 @@
+package project.model;
+
+/**
+ * Receives the progress of a stage of image processing.
+ */
+public interface ProgressListener {
+    /**
+     * Called when some of the work of a stage has been done.
+     * @param task The description of the work being done
+     * @param done The amount of work done so far
+     * @param total The total amount of work
+     */
+    void progressMade(String task, int done, int total);
+}
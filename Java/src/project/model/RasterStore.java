@@ -0,0 +1,160 @@
+package project.model;
+
+import java.awt.image.*;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Creates the binary and colour images and the label matrices used by the
+ * stages of image processing.
+ * <p>
+ * With the <code>HEAP</code> backend they are ordinary Java arrays. With the
+ * <code>DIRECT</code> backend the pixels are kept in direct byte buffers, and
+ * with the <code>MAPPED</code> backend in memory-mapped temporary files, so
+ * that very large pages are bounded by the disk rather than by the heap size
+ * and the garbage collector never scans their pixels. Off-heap images are
+ * slower to access pixel by pixel than the heap ones.
+ * </p>
+ */
+public class RasterStore {
+    /**
+     * Where the pixels are kept.
+     */
+    public enum Backend {
+        HEAP,
+        DIRECT,
+        MAPPED
+    }
+
+    private static final IndexColorModel binaryColorModel = new IndexColorModel(1, 2,
+            new byte[] {0, (byte)255}, new byte[] {0, (byte)255}, new byte[] {0, (byte)255});
+    private static final DirectColorModel rgbColorModel = new DirectColorModel(24, 0xFF0000, 0xFF00, 0xFF);
+
+    private Backend backend;
+    private File directory;
+
+    /**
+     * Create a new store, mapped files are created in the default temporary directory.
+     * @param backend Where the pixels are kept
+     */
+    public RasterStore(Backend backend) {
+        this(backend, null);
+    }
+
+    /**
+     * Create a new store.
+     * @param backend Where the pixels are kept
+     * @param directory The directory for the mapped files, or null for the default temporary directory
+     */
+    public RasterStore(Backend backend, File directory) {
+        this.backend = backend;
+        this.directory = directory;
+    }
+
+    /**
+     * Get the backend.
+     * @return Where the pixels are kept
+     */
+    public Backend getBackend() {
+        return backend;
+    }
+
+    /**
+     * Create an image, only binary and RGB images can be kept off the heap.
+     * @param width The width
+     * @param height The height
+     * @param imageType The type of the image, as in <code>BufferedImage</code>
+     * @return The image
+     */
+    public BufferedImage createImage(int width, int height, int imageType) {
+        if(backend == Backend.HEAP ||
+                (imageType != BufferedImage.TYPE_BYTE_BINARY && imageType != BufferedImage.TYPE_INT_RGB)) {
+            return new BufferedImage(width, height, imageType);
+        }
+
+        if(imageType == BufferedImage.TYPE_BYTE_BINARY) {
+            MultiPixelPackedSampleModel sampleModel = new MultiPixelPackedSampleModel(DataBuffer.TYPE_BYTE, width, height, 1);
+            int size = sampleModel.getScanlineStride()*height;
+            DataBuffer dataBuffer = new OffHeapDataBuffer(allocate(size, 1), size);
+            WritableRaster raster = Raster.createWritableRaster(sampleModel, dataBuffer, null);
+            return new BufferedImage(binaryColorModel, raster, false, null);
+        }
+
+        SampleModel sampleModel = rgbColorModel.createCompatibleSampleModel(width, height);
+        int size = width*height;
+        ByteBuffer[] segments = allocate(size, 4);
+        IntBuffer[] intSegments = new IntBuffer[segments.length];
+        for(int i=0; i<segments.length; i++) {
+            intSegments[i] = segments[i].asIntBuffer();
+        }
+        DataBuffer dataBuffer = new OffHeapDataBuffer(intSegments, size);
+        WritableRaster raster = Raster.createWritableRaster(sampleModel, dataBuffer, null);
+        return new BufferedImage(rgbColorModel, raster, false, null);
+    }
+
+    /**
+     * Create a label matrix filled with zeros.
+     * @param width The width
+     * @param height The height
+     * @return The label matrix
+     */
+    public LabelMatrix createLabelMatrix(int width, int height) {
+        if(backend == Backend.HEAP) {
+            return new LabelMatrix(width, height);
+        }
+
+        ByteBuffer[] segments = allocate(width*height, 4);
+        IntBuffer[] intSegments = new IntBuffer[segments.length];
+        for(int i=0; i<segments.length; i++) {
+            intSegments[i] = segments[i].asIntBuffer();
+        }
+        return new LabelMatrix(width, height, intSegments);
+    }
+
+    /**
+     * Allocate zeroed off-heap buffers split into segments.
+     * @param elements The number of elements
+     * @param elementSize The size of an element in bytes
+     * @return The segments
+     */
+    private ByteBuffer[] allocate(int elements, int elementSize) {
+        int segmentElements = 1 << OffHeapDataBuffer.SEGMENT_BITS;
+        int noSegments = (elements + segmentElements - 1)/segmentElements;
+        ByteBuffer[] segments = new ByteBuffer[Math.max(noSegments, 1)];
+
+        for(int i=0; i<segments.length; i++) {
+            int size = Math.min(segmentElements, elements - i*segmentElements)*elementSize;
+            if(backend == Backend.DIRECT) {
+                segments[i] = ByteBuffer.allocateDirect(size);
+            } else {
+                segments[i] = map(size);
+            }
+            segments[i].order(ByteOrder.nativeOrder());
+        }
+        return segments;
+    }
+
+    /**
+     * Map a new temporary file into memory. The file is deleted once it's closed,
+     * the mapping stays valid until the buffer is garbage collected.
+     * @param size The size in bytes
+     * @return The mapped buffer
+     */
+    private ByteBuffer map(int size) {
+        try {
+            File file = File.createTempFile("raster", ".bin", directory);
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE)) {
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
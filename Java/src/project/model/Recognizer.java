@@ -11,6 +11,7 @@ import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Performs the symbol recognition.
@@ -22,16 +23,17 @@ public class Recognizer {
     private int stavesInSystem;
 
     private Map<ArrayList<BoundingBox>, String> whichClef;
-    private Map<Integer, Integer> pitchAlterations;
-    private Map<Character, Integer> globalPitchAlterations;
 
     private ArrayList<BoundingBox> barLines;
     private ArrayList<BoundingBox> verticalLines;
     private ArrayList<Measure> measures;
 
-    private int[][] components;
+    private LabelMatrix components;
     private Collection<BoundingBox> boundingBoxes;
     private TrainingSet trainingSet;
+    private Progress progress = new Progress(null);
+    private int componentsLeft;
+    private ShapeCache shapeCache = new ShapeCache();
 
     // lists of bounding boxes of components
     private ArrayList<BoundingBox> quaverTails;
@@ -45,7 +47,64 @@ public class Recognizer {
     private ArrayList<BoundingBox> semibreveHalves;
     private ArrayList<BoundingBox> ties;
 
-    private static double ratioOfPixelsThreshold = 0.8;
+    static final double defaultRatioOfPixelsThreshold = 0.8;
+    private double ratioOfPixelsThreshold = defaultRatioOfPixelsThreshold;
+
+    // recognize the systems at the same time, each with its own context
+    private boolean parallelSystems = false;
+
+    /**
+     * The state of the recognition of a system. The measures are numbered within
+     * the system, and numbered again when the systems are merged in order.
+     */
+    private static class SystemContext {
+        // the index of the first stave of the system
+        private final int firstStave;
+        private final ArrayList<Measure> measures = new ArrayList<>();
+        // the first measure created, even if it stays empty
+        private Measure firstMeasure;
+        private int fifths;
+
+        private final Map<ArrayList<BoundingBox>, String> whichClef = new HashMap<>();
+        private final Map<Integer, Integer> pitchAlterations = new HashMap<>();
+        private final Map<Character, Integer> globalPitchAlterations = new HashMap<>();
+
+        // the accidentals found so far
+        private final ArrayList<BoundingBox> sharpBeams;
+        private final ArrayList<BoundingBox> sharps;
+        private final ArrayList<BoundingBox> flats;
+        private final ArrayList<BoundingBox> naturalBeams;
+        private final ArrayList<BoundingBox> semibreveHalves;
+
+        /**
+         * Create the context of a system recognized on its own.
+         * @param firstStave The index of the first stave of the system
+         */
+        private SystemContext(int firstStave) {
+            this(firstStave, new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), new ArrayList<>(),
+                    new ArrayList<>());
+        }
+
+        /**
+         * Create the context of a system adding the accidentals it finds to given lists.
+         * @param firstStave The index of the first stave of the system
+         * @param sharpBeams The sharp beams
+         * @param sharps The sharps
+         * @param flats The flats
+         * @param naturalBeams The natural beams
+         * @param semibreveHalves The semibreve halves
+         */
+        private SystemContext(int firstStave, ArrayList<BoundingBox> sharpBeams, ArrayList<BoundingBox> sharps,
+                              ArrayList<BoundingBox> flats, ArrayList<BoundingBox> naturalBeams,
+                              ArrayList<BoundingBox> semibreveHalves) {
+            this.firstStave = firstStave;
+            this.sharpBeams = sharpBeams;
+            this.sharps = sharps;
+            this.flats = flats;
+            this.naturalBeams = naturalBeams;
+            this.semibreveHalves = semibreveHalves;
+        }
+    }
 
     /**
      * Create a new instance.
@@ -58,7 +117,7 @@ public class Recognizer {
      */
     public Recognizer(ArrayList<ArrayList<BoundingBox>> staves, ArrayList<BoundingBox> barLines,
                       ArrayList<BoundingBox> verticalLines, int staveSpaceWidth, Collection<BoundingBox> boundingBoxes,
-                      int[][] components) {
+                      LabelMatrix components) {
         this.staves = staves;
         this.barLines = barLines;
         this.verticalLines = verticalLines;
@@ -87,8 +146,6 @@ public class Recognizer {
         semibreveHalves = new ArrayList<>();
         ties = new ArrayList<>();
         whichClef = new HashMap<>();
-        pitchAlterations = new HashMap<>();
-        globalPitchAlterations = new HashMap<>();
 
         for(int i=0; i<staves.size(); i++) {
             if(Math.abs(barLines.get(0).yEnd - staves.get(i).get(4).yEnd) < staveSpaceWidth/2) {
@@ -99,6 +156,79 @@ public class Recognizer {
         System.out.println("Number of staves in a system: " + stavesInSystem);
     }
 
+    /**
+     * Get the filter of the components discarded before classification: those one pixel
+     * wide or high, and those ending more than three stave spaces above the middle of the
+     * first stave line or starting as far below the middle of the last one.
+     * @param staves The staves
+     * @param staveSpaceWidth The average stave space width
+     * @return The filter, accepting the components that are classified
+     */
+    public static CCA.ComponentFilter createComponentFilter(ArrayList<ArrayList<BoundingBox>> staves,
+                                                            int staveSpaceWidth) {
+        int top = staves.get(0).get(0).getYPosition() - 3*staveSpaceWidth;
+        int bottom = staves.get(staves.size()-1).get(4).getYPosition() + 3*staveSpaceWidth;
+        return (xStart, yStart, xEnd, yEnd) -> xEnd - xStart + 1 > 1 && yEnd - yStart + 1 > 1
+                && yEnd >= top && yStart <= bottom;
+    }
+
+    /**
+     * Get the ratio of black pixels above which a component is taken as filled.
+     * @return The ratio of pixels threshold
+     */
+    public double getRatioOfPixelsThreshold() {
+        return ratioOfPixelsThreshold;
+    }
+
+    /**
+     * Set the ratio of black pixels above which a component is taken as filled.
+     * @param ratioOfPixelsThreshold The ratio of pixels threshold
+     */
+    public void setRatioOfPixelsThreshold(double ratioOfPixelsThreshold) {
+        this.ratioOfPixelsThreshold = ratioOfPixelsThreshold;
+    }
+
+    /**
+     * Get the distance within which symbols are taken as aligned.
+     * @return The tolerance, a fifth of the stave space width by default
+     */
+    public int getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * Set the distance within which symbols are taken as aligned.
+     * @param tolerance The tolerance
+     */
+    public void setTolerance(int tolerance) {
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Check if the systems are recognized at the same time.
+     * @return True if they are
+     */
+    public boolean isParallelSystems() {
+        return parallelSystems;
+    }
+
+    /**
+     * Recognize the systems at the same time, each without the accidentals found in
+     * the systems before it, which can only be near it on a crowded page.
+     * @param parallelSystems True to recognize them at the same time
+     */
+    public void setParallelSystems(boolean parallelSystems) {
+        this.parallelSystems = parallelSystems;
+    }
+
+    /**
+     * Set where the progress is reported.
+     * @param progress The progress
+     */
+    public void setProgress(Progress progress) {
+        this.progress = progress;
+    }
+
     /**
      * Get a Note object that corresponds to the given parameters.
      * @param yPosition The y position
@@ -111,11 +241,12 @@ public class Recognizer {
      * @param beams The beams
      * @param accidental The accidental
      * @param chord True if chord
+     * @param context The context of the system
      * @return The note
      */
     private Note getNote(int yPosition, ArrayList<BoundingBox> stave, String tieType,
                          int voice, String type, boolean dotted, int staff, ArrayList<String> beams,
-                         String accidental, boolean chord) {
+                         String accidental, boolean chord, SystemContext context) {
         // determine the stave-relative position based on the y coordinate
 
         int position=1;
@@ -162,8 +293,8 @@ public class Recognizer {
         }
 
         // update the pitch based on the clef
-        if(whichClef.containsKey(stave)) {
-            if(whichClef.get(stave).equals("bass")) {
+        if(context.whichClef.containsKey(stave)) {
+            if(context.whichClef.get(stave).equals("bass")) {
                 position += 12;
             }
         }
@@ -212,8 +343,8 @@ public class Recognizer {
 
         // update the pitch based on the accidentals and the key signature
         int alteration = 0;
-        if(globalPitchAlterations.containsKey(step)) {
-            alteration = globalPitchAlterations.get(step);
+        if(context.globalPitchAlterations.containsKey(step)) {
+            alteration = context.globalPitchAlterations.get(step);
         }
         if(accidental != null) {
             switch(accidental) {
@@ -226,9 +357,9 @@ public class Recognizer {
                 case "natural":
                     alteration = 0;
             }
-            pitchAlterations.put(position, alteration);
-        } else if(pitchAlterations.containsKey(position)) {
-            alteration = pitchAlterations.get(position);
+            context.pitchAlterations.put(position, alteration);
+        } else if(context.pitchAlterations.containsKey(position)) {
+            alteration = context.pitchAlterations.get(position);
         }
 
         return new Note(step, alteration, octave, tieType, voice, type, dotted, staff, beams, accidental, chord);
@@ -241,6 +372,17 @@ public class Recognizer {
      * @return
      */
     private int countPeaks(BufferedImage symbol, char dimension) {
+        return shapeCache.test("countPeaks " + dimension, symbol, tolerance,
+                shape -> countProjectionPeaks(shape, dimension));
+    }
+
+    /**
+     * Count peaks in the image's projection without looking for the same shape.
+     * @param symbol The image
+     * @param dimension The dimension
+     * @return The number of peaks
+     */
+    private int countProjectionPeaks(BufferedImage symbol, char dimension) {
         int firstSize;
         int secondSize;
         switch(dimension) {
@@ -279,6 +421,15 @@ public class Recognizer {
         return peaks;
     }
 
+    /**
+     * Get the ratio of black to white pixels of a whole component.
+     * @param symbol The image of the component
+     * @return The ratio of black to white pixels
+     */
+    private double ratioOfPixels(BufferedImage symbol) {
+        return shapeCache.test("ratioOfPixels", symbol, 0, TrainingSet::ratioOfPixels);
+    }
+
     /**
      * Find the second beam for a given beam.
      * @param image The image
@@ -288,6 +439,22 @@ public class Recognizer {
      * @return The type of the second beam
      */
     private String findSecondBeam(BufferedImage image, BufferedImage beamSubimage, BoundingBox beam, BoundingBox stem) {
+        RecognizerEvent event = new RecognizerEvent();
+        event.begin();
+        String secondBeamType = findSecondBeamType(image, beamSubimage, beam, stem);
+        event.report("findSecondBeam", beam.getWidth(), beam.getHeight(), secondBeamType);
+        return secondBeamType;
+    }
+
+    /**
+     * Find the type of the second beam by looking at the projection of the beam next to the stem.
+     * @param image The image
+     * @param beamSubimage The image of the beam
+     * @param beam The bounding box of the beam
+     * @param stem The bounding box of the stem
+     * @return The type of the second beam
+     */
+    private String findSecondBeamType(BufferedImage image, BufferedImage beamSubimage, BoundingBox beam, BoundingBox stem) {
         int[] projection = Model.project(beamSubimage, 'y');
         int doubleBeamLowerThreshold = staveSpaceWidth - staveSpaceWidth/3;
         String secondBeamType = null;
@@ -304,8 +471,8 @@ public class Recognizer {
             if(projection[n] > doubleBeamLowerThreshold) {
                 goodValues++;
                 for(int i = beam.yStart; i<=beam.yEnd; i++) {
-                    if(i % 5 == 0) {
-                        image.setRGB(n + beam.xStart, i, ColorOperations.white());
+                    if(i % 5 == 0 && image != null) {
+                        image.setRGB(n + beam.xStart, i, ColorOperations.WHITE);
                     }
                 }
             }
@@ -324,8 +491,8 @@ public class Recognizer {
                 if(projection[n] > doubleBeamLowerThreshold) {
                     goodValues++;
                     for(int i = beam.yStart; i<=beam.yEnd; i++) {
-                        if(i % 5 == 0) {
-                            image.setRGB(n + beam.xStart, i, ColorOperations.white());
+                        if(i % 5 == 0 && image != null) {
+                            image.setRGB(n + beam.xStart, i, ColorOperations.WHITE);
                         }
                     }
                 }
@@ -346,8 +513,8 @@ public class Recognizer {
             if(projection[n] > doubleBeamLowerThreshold) {
                 goodValues++;
                 for(int i = beam.yStart; i<=beam.yEnd; i++) {
-                    if(i % 5 == 0) {
-                        image.setRGB(n + beam.xStart, i, ColorOperations.white());
+                    if(i % 5 == 0 && image != null) {
+                        image.setRGB(n + beam.xStart, i, ColorOperations.WHITE);
                     }
                 }
             }
@@ -369,8 +536,8 @@ public class Recognizer {
                     if(projection[n] > doubleBeamLowerThreshold) {
                         goodValues++;
                         for(int i = beam.yStart; i<=beam.yEnd; i++) {
-                            if(i % 5 == 0) {
-                                image.setRGB(n + beam.xStart, i, ColorOperations.white());
+                            if(i % 5 == 0 && image != null) {
+                                image.setRGB(n + beam.xStart, i, ColorOperations.WHITE);
                             }
                         }
                     }
@@ -391,6 +558,21 @@ public class Recognizer {
      * @return True if the component has a beam shape
      */
     private boolean isBeam(BufferedImage originalImage, BoundingBox boundingBox) {
+        RecognizerEvent event = new RecognizerEvent();
+        event.begin();
+        boolean beam = shapeCache.test("isBeam", boundingBox.getImage(originalImage, components), staveSpaceWidth,
+                symbol -> hasBeamShape(originalImage, boundingBox));
+        event.report("isBeam", boundingBox.getWidth(), boundingBox.getHeight(), beam);
+        return beam;
+    }
+
+    /**
+     * Check if many lines of the same slope cross a component from left to right.
+     * @param originalImage The original image
+     * @param boundingBox The component
+     * @return True if the component has a beam shape
+     */
+    private boolean hasBeamShape(BufferedImage originalImage, BoundingBox boundingBox) {
         // count number of lines going from left to right for every slope
         Map<Double, Integer> noLines = new HashMap<>();
         for(int i=0; i<boundingBox.getHeight(); i++) {
@@ -408,7 +590,7 @@ public class Recognizer {
                 // count the number of pixels on that line
                 int noPixels = 0;
                 for(int k=0; k<boundingBox.getWidth(); k++) {
-                    if(boundingBox.getImage(originalImage, components).getRGB(k, (int)(a*(double)k+b)) == ColorOperations.black()) {
+                    if(boundingBox.getImage(originalImage, components).getRGB(k, (int)(a*(double)k+b)) == ColorOperations.BLACK) {
                         noPixels++;
                     }
                 }
@@ -437,10 +619,11 @@ public class Recognizer {
      * @param accidental The accidental's type
      * @param lastKeySignatureAccidentalX The x position of the last recognized key signature accidental
      * @param fifths The number of accidentals in the key signature currently recognized
+     * @param context The context of the system
      * @return True if the accidental is part of the key signature
      */
     private boolean isPartOfKeySignature(BoundingBox symbol, ArrayList<BoundingBox> stave, String accidental,
-                                        int lastKeySignatureAccidentalX, int fifths) {
+                                        int lastKeySignatureAccidentalX, int fifths, SystemContext context) {
         switch(fifths) {
             case 0:
                 // distance from the beginning
@@ -450,13 +633,13 @@ public class Recognizer {
                     switch(accidental) {
                         case "sharp":
                             if(Math.abs(symbol.getYPosition() - stave.get(0).getYPosition()) < tolerance) {
-                                globalPitchAlterations.put('F', 1);
+                                context.globalPitchAlterations.put('F', 1);
                                 return true;
                             }
                             break;
                         case "flat":
                             if(Math.abs(symbol.getYPosition() - stave.get(2).getYPosition()) < tolerance) {
-                                globalPitchAlterations.put('B', -1);
+                                context.globalPitchAlterations.put('B', -1);
                                 return true;
                             }
                             break;
@@ -471,7 +654,7 @@ public class Recognizer {
                             // vertical position
                             if(Math.abs(symbol.getYPosition() -
                                     (stave.get(1).getYPosition()+stave.get(2).getYPosition())/2) < tolerance) {
-                                globalPitchAlterations.put('C', 1);
+                                context.globalPitchAlterations.put('C', 1);
                                 return true;
                             }
                             break;
@@ -500,25 +683,32 @@ public class Recognizer {
         return false;
     }
 
+    /**
+     * Perform symbol recognition without drawing the symbols found,
+     * e.g. on a <code>StageSnapshot</code>.
+     */
+    public void recognize() {
+        // the images are only drawn on and used as keys of the subimages
+        recognize(null, null, null);
+    }
+
     /**
      * Perform symbol recognition
-     * @param image The image to be updated
+     * @param image The image to be updated, or null
      * @param originalImage The binary image without CCA markings
      * @param veryOriginalImage The original image
      */
     public void recognize(BufferedImage image, BufferedImage originalImage, BufferedImage veryOriginalImage) {
         ArrayList<BoundingBox> boundingBoxesLeft = new ArrayList<>();
+        int classified = 0;
+        // the model has CCA filter these out already, snapshots written before may still have them
+        CCA.ComponentFilter componentFilter = createComponentFilter(staves, staveSpaceWidth);
+        progress.setTask("Classifying components");
         for(BoundingBox boundingBox : boundingBoxes) {
-            // dimensions
-            if(boundingBox.getWidth() <= 1 || boundingBox.getHeight() <= 1) {
-                // discard
-                CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(0, 0, 0));
-                continue;
-            }
+            progress.update(classified++, boundingBoxes.size());
 
-            // above or below the staves
-            if(boundingBox.yEnd < staves.get(0).get(0).getYPosition() - 3*staveSpaceWidth ||
-                    boundingBox.yStart > staves.get(staves.size()-1).get(4).getYPosition() + 3*staveSpaceWidth) {
+            // dimensions, or above or below the staves
+            if(!componentFilter.accept(boundingBox.xStart, boundingBox.yStart, boundingBox.xEnd, boundingBox.yEnd)) {
                 // discard
                 CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(0, 0, 0));
                 continue;
@@ -561,7 +751,7 @@ public class Recognizer {
             } else if(boundingBox.getWidth() > staveSpaceWidth && boundingBox.getWidth() < 1.5*staveSpaceWidth &&
                     boundingBox.getHeight() > staveSpaceWidth/3 && boundingBox.getHeight() < staveSpaceWidth) {
                 // ratio of black to white pixels
-                if(TrainingSet.ratioOfPixels(boundingBox.getImage(originalImage, components)) > ratioOfPixelsThreshold) {
+                if(ratioOfPixels(boundingBox.getImage(originalImage, components)) > ratioOfPixelsThreshold) {
                     // is connected to a stem
                     boolean stemFound = false;
                     for(BoundingBox verticalLine : verticalLines) {
@@ -581,7 +771,8 @@ public class Recognizer {
             } else if(boundingBox.getWidth() > 0.5*staveSpaceWidth && boundingBox.getWidth() < 1.5*staveSpaceWidth &&
                     boundingBox.getHeight() > 2*staveSpaceWidth && boundingBox.getHeight() < 3.2*staveSpaceWidth) {
                 // shape
-                if(trainingSet.isTail(boundingBox.getImage(originalImage, components))) {
+                if(shapeCache.test("isTail", boundingBox.getImage(originalImage, components), 0,
+                        trainingSet::isTail)) {
                     // quaver tail
                     quaverTails.add(boundingBox);
                     CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(255, 150, 150));
@@ -598,395 +789,499 @@ public class Recognizer {
 
             boundingBoxesLeft.add(boundingBox);
         }
+        componentsLeft = boundingBoxesLeft.size();
+        ComponentIndex componentIndex = new ComponentIndex(boundingBoxesLeft, staves, staveSpaceWidth);
 
         // loop through each system
+        progress.setTask("Recognizing systems");
+        ArrayList<SystemContext> contexts = new ArrayList<>();
         for(int i=0; i<staves.size(); i+=stavesInSystem) {
-            ArrayList<BoundingBox> barLinesInThisSystem = new ArrayList<>();
-            for(BoundingBox barLine : barLines) {
-                if(Math.abs(barLine.yStart - staves.get(i).get(0).yStart) < tolerance) {
-                    barLinesInThisSystem.add(barLine);
-                }
+            if(parallelSystems) {
+                contexts.add(new SystemContext(i));
+            } else {
+                // the systems see the accidentals of the systems before them
+                contexts.add(new SystemContext(i, sharpBeams, sharps, flats, naturalBeams, semibreveHalves));
+            }
+        }
+        if(parallelSystems) {
+            // the systems are counted as they start, whichever thread they run on
+            AtomicInteger systemsStarted = new AtomicInteger();
+            contexts.parallelStream().forEach(context -> {
+                progress.update(systemsStarted.getAndIncrement()*stavesInSystem, staves.size());
+                recognizeSystem(context, componentIndex, image, originalImage, veryOriginalImage);
+            });
+        } else {
+            for(SystemContext context : contexts) {
+                progress.update(context.firstStave, staves.size());
+                recognizeSystem(context, componentIndex, image, originalImage, veryOriginalImage);
             }
+        }
 
+        // merge the systems in order
+        for(SystemContext context : contexts) {
             int firstBarInSystemIndex = measures.size();
-            boolean newSystem = measures.size() == 0 ? false : true;
-
-            int fifths = 0;
-            int lastKeySignatureAccidentalX = -1;
-            globalPitchAlterations.clear();
+            if(firstBarInSystemIndex > 0 && context.firstMeasure != null) {
+                context.firstMeasure.setNewSystem();
+            }
+            for(Measure measure : context.measures) {
+                measure.setNumber(measures.size()+1);
+                measures.add(measure);
+            }
+            if(parallelSystems) {
+                sharpBeams.addAll(context.sharpBeams);
+                sharps.addAll(context.sharps);
+                flats.addAll(context.flats);
+                naturalBeams.addAll(context.naturalBeams);
+                semibreveHalves.addAll(context.semibreveHalves);
+            }
+            whichClef.putAll(context.whichClef);
 
-            // loop through each bar in this system
-            for(int j=0; j<barLinesInThisSystem.size(); j++) {
-                if(Math.abs(barLinesInThisSystem.get(j).getXPosition() - staves.get(i).get(0).xStart) < 3*staveSpaceWidth) {
-                    continue;
+            ArrayList<String> clefsInThisSystem = new ArrayList<>();
+            for(int j=0; j<stavesInSystem; j++) {
+                if(whichClef.containsKey(staves.get(context.firstStave+j))) {
+                    clefsInThisSystem.add(whichClef.get(staves.get(context.firstStave+j)));
+                } else {
+                    System.out.println("No clef recognized on stave  " + (context.firstStave+j));
                 }
+            }
+            measures.get(firstBarInSystemIndex).addAttributes(context.fifths, 4, 4, clefsInThisSystem, stavesInSystem);
+        }
+        measures.get(measures.size()-1).setLast();
+    }
 
-                int leftBound = staves.get(i).get(0).xStart;
-                if(j > 0) {
-                    leftBound = barLinesInThisSystem.get(j-1).getXPosition();
-                }
+    /**
+     * Recognize the symbols of a system.
+     * @param context The context of the system
+     * @param componentIndex The components left for the systems
+     * @param image The image to be updated, or null
+     * @param originalImage The binary image without CCA markings
+     * @param veryOriginalImage The original image
+     */
+    private void recognizeSystem(SystemContext context, ComponentIndex componentIndex, BufferedImage image,
+                                 BufferedImage originalImage, BufferedImage veryOriginalImage) {
+        int i = context.firstStave;
+        ArrayList<BoundingBox> barLinesInThisSystem = new ArrayList<>();
+        for(BoundingBox barLine : barLines) {
+            if(Math.abs(barLine.yStart - staves.get(i).get(0).yStart) < tolerance) {
+                barLinesInThisSystem.add(barLine);
+            }
+        }
 
-                Measure measure = new Measure(measures.size()+1);
-                if(newSystem) {
-                    measure.setNewSystem();
-                    newSystem = false;
-                }
+        int fifths = 0;
+        int lastKeySignatureAccidentalX = -1;
 
-                boolean[] timeSignatureRecognized = new boolean[stavesInSystem];
-                for(int z = 0; z<stavesInSystem; z++) {
-                    timeSignatureRecognized[z] = false;
-                }
+        // loop through each bar in this system
+        for(int j=0; j<barLinesInThisSystem.size(); j++) {
+            if(Math.abs(barLinesInThisSystem.get(j).getXPosition() - staves.get(i).get(0).xStart) < 3*staveSpaceWidth) {
+                continue;
+            }
 
-                // loop through each stave in this system
-                for(int k=0; k<stavesInSystem; k++) {
-                    ArrayList<BoundingBox> stave = staves.get(i+k);
-                    int upperBound = i+k == 0 ?
-                            stave.get(0).yStart - 5*staveSpaceWidth :
-                            (stave.get(0).yStart + staves.get(i+k-1).get(4).yEnd)/2;
-                    int lowerBound = i+k == staves.size()-1 ?
-                            stave.get(4).yEnd + 5*staveSpaceWidth :
-                            (stave.get(4).yEnd + staves.get(i+k+1).get(0).yStart)/2;
-
-                    ArrayList<BoundingBox> relevantComponents = new ArrayList<>();
-                    for(BoundingBox boundingBox : boundingBoxesLeft) {
-                        if(boundingBox.getYPosition() > upperBound && boundingBox.getYPosition() < lowerBound) {
-                            if(boundingBox.xStart > leftBound &&
-                                    boundingBox.xEnd < barLinesInThisSystem.get(j).getXPosition()) {
-                                relevantComponents.add(boundingBox);
-                            }
-                        }
-                    }
+            int leftBound = staves.get(i).get(0).xStart;
+            if(j > 0) {
+                leftBound = barLinesInThisSystem.get(j-1).getXPosition();
+            }
 
-                    Comparator<BoundingBox> componentComparator = (BoundingBox component1, BoundingBox component2) -> {
-                        if(component1.xStart < component2.xStart) {
-                            return -1;
-                        }
-                        if(component1.xStart == component2.xStart) {
-                            return 0;
+            Measure measure = new Measure(context.measures.size()+1);
+            if(context.firstMeasure == null) {
+                // the start of a new system unless the system is the first one with measures
+                context.firstMeasure = measure;
+            }
+
+            boolean[] timeSignatureRecognized = new boolean[stavesInSystem];
+            for(int z = 0; z<stavesInSystem; z++) {
+                timeSignatureRecognized[z] = false;
+            }
+
+            // loop through each stave in this system
+            for(int k=0; k<stavesInSystem; k++) {
+                ArrayList<BoundingBox> stave = staves.get(i+k);
+
+                // sorted by x
+                ArrayList<BoundingBox> relevantComponents = componentIndex.getComponents(i+k, leftBound,
+                        barLinesInThisSystem.get(j).getXPosition());
+
+                int lastNoteXPosition = -1;
+                String lastNoteType = "";
+                context.pitchAlterations.clear();
+
+                for(int m=0; m<relevantComponents.size(); m++) {
+                    BoundingBox boundingBox = relevantComponents.get(m);
+
+                    // distance from the beginning of the stave
+                    if(boundingBox.xStart - stave.get(0).xStart <= 1.5*staveSpaceWidth) {
+                        // height
+                        if(boundingBox.getHeight() > 6*staveSpaceWidth) {
+                            // treble clef
+                            context.whichClef.put(stave, "treble");
+                            CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(255, 0, 0));
+                            continue;
                         }
-                        return 1;
-                    };
-                    Collections.sort(relevantComponents, componentComparator);
-
-                    int lastNoteXPosition = -1;
-                    String lastNoteType = "";
-                    pitchAlterations.clear();
-
-                    for(int m=0; m<relevantComponents.size(); m++) {
-                        BoundingBox boundingBox = relevantComponents.get(m);
-
-                        // distance from the beginning of the stave
-                        if(boundingBox.xStart - stave.get(0).xStart <= 1.5*staveSpaceWidth) {
-                            // height
-                            if(boundingBox.getHeight() > 6*staveSpaceWidth) {
-                                // treble clef
-                                whichClef.put(stave, "treble");
-                                CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(255, 0, 0));
-                                continue;
-                            }
-                            if(boundingBox.getHeight() > 3*staveSpaceWidth) {
-                                // bass clef
-                                whichClef.put(stave, "bass");
-                                CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(0, 255, 0));
-                                continue;
-                            }
+                        if(boundingBox.getHeight() > 3*staveSpaceWidth) {
+                            // bass clef
+                            context.whichClef.put(stave, "bass");
+                            CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(0, 255, 0));
+                            continue;
                         }
+                    }
 
-                        // dimensions
-                        if(boundingBox.getWidth() > 0.8*staveSpaceWidth && boundingBox.getWidth() < 1.5*staveSpaceWidth &&
-                                boundingBox.getHeight() < staveSpaceWidth) {
-                            if(isBeam(originalImage, boundingBox)) {
-                                // ratio of black to white pixels
-                                if(TrainingSet.ratioOfPixels(boundingBox.getImage(originalImage, components)) < ratioOfPixelsThreshold) {
-                                    // sharp beam
-                                    sharpBeams.add(boundingBox);
-                                    CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(0, 0, 255));
-
-                                    // find the other beam
-                                    for(int n=0; n<sharpBeams.size(); n++) {
-                                        BoundingBox sharpBeam = sharpBeams.get(n);
-                                        if(sharpBeam == boundingBox) {
-                                            continue;
-                                        }
+                    // dimensions
+                    if(boundingBox.getWidth() > 0.8*staveSpaceWidth && boundingBox.getWidth() < 1.5*staveSpaceWidth &&
+                            boundingBox.getHeight() < staveSpaceWidth) {
+                        if(isBeam(originalImage, boundingBox)) {
+                            // ratio of black to white pixels
+                            if(ratioOfPixels(boundingBox.getImage(originalImage, components)) < ratioOfPixelsThreshold) {
+                                // sharp beam
+                                context.sharpBeams.add(boundingBox);
+                                CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(0, 0, 255));
 
-                                        if(Math.abs(boundingBox.getXPosition() - sharpBeam.getXPosition()) < tolerance &&
-                                                Math.abs(boundingBox.getYPosition() - sharpBeam.getYPosition()) < 1.5*staveSpaceWidth) {
-                                            BoundingBox newBoundingBox = new BoundingBox(
-                                                    Math.min(boundingBox.xStart, sharpBeam.xStart),
-                                                    Math.min(boundingBox.yStart, sharpBeam.yStart),
-                                                    Math.max(boundingBox.xEnd, sharpBeam.xEnd),
-                                                    Math.max(boundingBox.yEnd, sharpBeam.yEnd),
-                                                    boundingBox.label);
-
-                                            sharpBeams.remove(sharpBeam);
-                                            sharpBeams.remove(boundingBox);
-
-                                            if(isPartOfKeySignature(newBoundingBox, stave, "sharp",
-                                                    lastKeySignatureAccidentalX, fifths)) {
-                                                fifths++;
-                                                lastKeySignatureAccidentalX = newBoundingBox.getXPosition();
-                                            } else {
-                                                if(newBoundingBox.getXPosition() > lastKeySignatureAccidentalX + staveSpaceWidth) {
-                                                    sharps.add(newBoundingBox);
-                                                }
-                                            }
+                                // find the other beam
+                                for(int n=0; n<context.sharpBeams.size(); n++) {
+                                    BoundingBox sharpBeam = context.sharpBeams.get(n);
+                                    if(sharpBeam == boundingBox) {
+                                        continue;
+                                    }
 
-                                            CCA.drawBoundingBox(image, newBoundingBox, ColorOperations.colorToRgb(0, 0, 255));
-                                            break;
+                                    if(Math.abs(boundingBox.getXPosition() - sharpBeam.getXPosition()) < tolerance &&
+                                            Math.abs(boundingBox.getYPosition() - sharpBeam.getYPosition()) < 1.5*staveSpaceWidth) {
+                                        BoundingBox newBoundingBox = new BoundingBox(
+                                                Math.min(boundingBox.xStart, sharpBeam.xStart),
+                                                Math.min(boundingBox.yStart, sharpBeam.yStart),
+                                                Math.max(boundingBox.xEnd, sharpBeam.xEnd),
+                                                Math.max(boundingBox.yEnd, sharpBeam.yEnd),
+                                                boundingBox.label);
+
+                                        context.sharpBeams.remove(sharpBeam);
+                                        context.sharpBeams.remove(boundingBox);
+
+                                        if(isPartOfKeySignature(newBoundingBox, stave, "sharp",
+                                                lastKeySignatureAccidentalX, fifths, context)) {
+                                            fifths++;
+                                            lastKeySignatureAccidentalX = newBoundingBox.getXPosition();
+                                        } else {
+                                            if(newBoundingBox.getXPosition() > lastKeySignatureAccidentalX + staveSpaceWidth) {
+                                                context.sharps.add(newBoundingBox);
+                                            }
                                         }
-                                    }
 
-                                    continue;
-                                }
-                            }
-                        } else if(boundingBox.getHeight() > 0.9*staveSpaceWidth && boundingBox.getHeight() < 1.5*staveSpaceWidth &&
-                                boundingBox.getWidth() > 0.5*staveSpaceWidth && boundingBox.getWidth() < 1.2*staveSpaceWidth) {
-                            // check for the flat hole
-                            if(TrainingSet.ratioOfPixels(boundingBox.getImage(originalImage, components).getSubimage(
-                                    0, boundingBox.getHeight()/3,
-                                    boundingBox.getWidth()/2, boundingBox.getHeight()/3)) < (1-ratioOfPixelsThreshold)) {
-                                // flat
-                                if(isPartOfKeySignature(boundingBox, stave, "flat",
-                                        lastKeySignatureAccidentalX, fifths)) {
-                                    fifths--;
-                                    lastKeySignatureAccidentalX = boundingBox.getXPosition();
-                                } else {
-                                    if(boundingBox.getXPosition() > lastKeySignatureAccidentalX + staveSpaceWidth) {
-                                        flats.add(boundingBox);
+                                        CCA.drawBoundingBox(image, newBoundingBox, ColorOperations.colorToRgb(0, 0, 255));
+                                        break;
                                     }
                                 }
 
-                                CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(0, 150, 255));
-                                continue;
-                            }
-                        } if(boundingBox.getWidth() > 0.5*staveSpaceWidth && boundingBox.getWidth() < 0.9*staveSpaceWidth &&
-                                boundingBox.getHeight() < 0.8*staveSpaceWidth) {
-                            if(isBeam(originalImage, boundingBox)) {
-                                // natural beam
-                                naturalBeams.add(boundingBox);
-                                CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(255, 0, 255));
                                 continue;
                             }
                         }
-
-                        // is time signature
-                        if(!timeSignatureRecognized[k] && boundingBox.getWidth() > staveSpaceWidth
-                                && staves.indexOf(stave) < stavesInSystem && measures.size() == 0) {
-                            // vertical position
-                            if(Math.abs(boundingBox.yStart - stave.get(0).getYPosition()) < staveSpaceWidth/4 &&
-                                    Math.abs(stave.get(4).getYPosition() - boundingBox.yEnd) < staveSpaceWidth/4) {
-                                // whole time signature
-                                timeSignatureRecognized[k] = true;
-                                CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(0, 0, 255));
-                                continue;
-                            } else if(Math.abs(boundingBox.yStart - stave.get(1).getYPosition()) < staveSpaceWidth/4 &&
-                                    Math.abs(stave.get(3).getYPosition() - boundingBox.yEnd) < staveSpaceWidth/4) {
-                                // C time signature
-                                timeSignatureRecognized[k] = true;
-                                CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(0, 0, 255));
-                                continue;
+                    } else if(boundingBox.getHeight() > 0.9*staveSpaceWidth && boundingBox.getHeight() < 1.5*staveSpaceWidth &&
+                            boundingBox.getWidth() > 0.5*staveSpaceWidth && boundingBox.getWidth() < 1.2*staveSpaceWidth) {
+                        // check for the flat hole
+                        if(TrainingSet.ratioOfPixels(boundingBox.getImage(originalImage, components).getSubimage(
+                                0, boundingBox.getHeight()/3,
+                                boundingBox.getWidth()/2, boundingBox.getHeight()/3)) < (1-ratioOfPixelsThreshold)) {
+                            // flat
+                            if(isPartOfKeySignature(boundingBox, stave, "flat",
+                                    lastKeySignatureAccidentalX, fifths, context)) {
+                                fifths--;
+                                lastKeySignatureAccidentalX = boundingBox.getXPosition();
+                            } else {
+                                if(boundingBox.getXPosition() > lastKeySignatureAccidentalX + staveSpaceWidth) {
+                                    context.flats.add(boundingBox);
+                                }
                             }
+
+                            CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(0, 150, 255));
+                            continue;
+                        }
+                    } if(boundingBox.getWidth() > 0.5*staveSpaceWidth && boundingBox.getWidth() < 0.9*staveSpaceWidth &&
+                            boundingBox.getHeight() < 0.8*staveSpaceWidth) {
+                        if(isBeam(originalImage, boundingBox)) {
+                            // natural beam
+                            context.naturalBeams.add(boundingBox);
+                            CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(255, 0, 255));
+                            continue;
                         }
+                    }
 
-                        // is dotted
-                        boolean dotted = false;
-                        for(BoundingBox dot : dots) {
-                            if(dot.xStart > boundingBox.xEnd &&
-                                    dot.xStart - boundingBox.xEnd < 3*staveSpaceWidth/4 &&
-                                    Math.abs(boundingBox.getYPosition() - dot.getYPosition()) < staveSpaceWidth) {
-                                // dotted value
-                                dotted = true;
-                            }
+                    // is time signature
+                    if(!timeSignatureRecognized[k] && boundingBox.getWidth() > staveSpaceWidth
+                            && staves.indexOf(stave) < stavesInSystem && context.measures.size() == 0) {
+                        // vertical position
+                        if(Math.abs(boundingBox.yStart - stave.get(0).getYPosition()) < staveSpaceWidth/4 &&
+                                Math.abs(stave.get(4).getYPosition() - boundingBox.yEnd) < staveSpaceWidth/4) {
+                            // whole time signature
+                            timeSignatureRecognized[k] = true;
+                            CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(0, 0, 255));
+                            continue;
+                        } else if(Math.abs(boundingBox.yStart - stave.get(1).getYPosition()) < staveSpaceWidth/4 &&
+                                Math.abs(stave.get(3).getYPosition() - boundingBox.yEnd) < staveSpaceWidth/4) {
+                            // C time signature
+                            timeSignatureRecognized[k] = true;
+                            CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(0, 0, 255));
+                            continue;
                         }
+                    }
 
-                        // is tied
-                        String tieType = null;
-                        for(BoundingBox tie : ties) {
-                            if(Math.abs(tie.getYPosition() - boundingBox.getYPosition()) < 2*staveSpaceWidth &&
-                                    Math.abs(tie.getXPosition() - boundingBox.getXPosition()) < 2*staveSpaceWidth) {
-                                if(tie.xStart > boundingBox.xStart) {
-                                    tieType = "start";
-                                    break;
-                                }
-                                if(boundingBox.xStart > tie.xStart) {
-                                    tieType = "stop";
-                                    break;
-                                }
-                            }
+                    // is dotted
+                    boolean dotted = false;
+                    for(BoundingBox dot : dots) {
+                        if(dot.xStart > boundingBox.xEnd &&
+                                dot.xStart - boundingBox.xEnd < 3*staveSpaceWidth/4 &&
+                                Math.abs(boundingBox.getYPosition() - dot.getYPosition()) < staveSpaceWidth) {
+                            // dotted value
+                            dotted = true;
                         }
+                    }
 
-                        // is sharp
-                        String accidental = null;
-                        for(BoundingBox sharp : sharps) {
-                            if(sharp.xEnd < boundingBox.xStart &&
-                                    boundingBox.xStart - sharp.xEnd < 2*staveSpaceWidth &&
-                                    Math.abs(boundingBox.getYPosition() - sharp.getYPosition()) < tolerance) {
-                                accidental = "sharp";
+                    // is tied
+                    String tieType = null;
+                    for(BoundingBox tie : ties) {
+                        if(Math.abs(tie.getYPosition() - boundingBox.getYPosition()) < 2*staveSpaceWidth &&
+                                Math.abs(tie.getXPosition() - boundingBox.getXPosition()) < 2*staveSpaceWidth) {
+                            if(tie.xStart > boundingBox.xStart) {
+                                tieType = "start";
+                                break;
+                            }
+                            if(boundingBox.xStart > tie.xStart) {
+                                tieType = "stop";
                                 break;
                             }
                         }
+                    }
 
-                        // is flat
-                        if(accidental == null) {
-                            for(BoundingBox flat : flats) {
-                                if(flat.xEnd < boundingBox.xStart &&
-                                        boundingBox.xStart - flat.xEnd < 2*staveSpaceWidth &&
-                                        Math.abs(flat.getYPosition() - boundingBox.getYPosition()) < tolerance) {
-                                    accidental = "flat";
-                                }
-                            }
+                    // is sharp
+                    String accidental = null;
+                    for(BoundingBox sharp : context.sharps) {
+                        if(sharp.xEnd < boundingBox.xStart &&
+                                boundingBox.xStart - sharp.xEnd < 2*staveSpaceWidth &&
+                                Math.abs(boundingBox.getYPosition() - sharp.getYPosition()) < tolerance) {
+                            accidental = "sharp";
+                            break;
                         }
+                    }
 
-                        // is natural
-                        boolean topBeamFound = false;
-                        boolean bottomBeamFound = false;
-                        for(BoundingBox naturalBeam : naturalBeams) {
-                            if(boundingBox.xStart > naturalBeam.xEnd &&
-                                    boundingBox.xStart - naturalBeam.xEnd < 2*staveSpaceWidth) {
-                                if(boundingBox.getYPosition() > naturalBeam.getYPosition() &&
-                                        boundingBox.getYPosition() - naturalBeam.getYPosition() < 0.8*staveSpaceWidth) {
-                                    topBeamFound = true;
-                                }
-                                if(boundingBox.getYPosition() < naturalBeam.getYPosition() &&
-                                        naturalBeam.getYPosition() - boundingBox.getYPosition() < 0.8*staveSpaceWidth) {
-                                    bottomBeamFound = true;
-                                }
+                    // is flat
+                    if(accidental == null) {
+                        for(BoundingBox flat : context.flats) {
+                            if(flat.xEnd < boundingBox.xStart &&
+                                    boundingBox.xStart - flat.xEnd < 2*staveSpaceWidth &&
+                                    Math.abs(flat.getYPosition() - boundingBox.getYPosition()) < tolerance) {
+                                accidental = "flat";
                             }
                         }
-                        if(topBeamFound && bottomBeamFound) {
-                            accidental = "natural";
+                    }
+
+                    // is natural
+                    boolean topBeamFound = false;
+                    boolean bottomBeamFound = false;
+                    for(BoundingBox naturalBeam : context.naturalBeams) {
+                        if(boundingBox.xStart > naturalBeam.xEnd &&
+                                boundingBox.xStart - naturalBeam.xEnd < 2*staveSpaceWidth) {
+                            if(boundingBox.getYPosition() > naturalBeam.getYPosition() &&
+                                    boundingBox.getYPosition() - naturalBeam.getYPosition() < 0.8*staveSpaceWidth) {
+                                topBeamFound = true;
+                            }
+                            if(boundingBox.getYPosition() < naturalBeam.getYPosition() &&
+                                    naturalBeam.getYPosition() - boundingBox.getYPosition() < 0.8*staveSpaceWidth) {
+                                bottomBeamFound = true;
+                            }
                         }
+                    }
+                    if(topBeamFound && bottomBeamFound) {
+                        accidental = "natural";
+                    }
 
-                        // dimensions
-                        if(boundingBox.getWidth() > staveSpaceWidth && boundingBox.getWidth() < 2*staveSpaceWidth &&
-                                boundingBox.getHeight() > staveSpaceWidth/2 && boundingBox.getHeight() < staveSpaceWidth) {
-                            // vertical position
-                            if(Math.abs(boundingBox.yStart - stave.get(1).getYPosition()) < tolerance) {
-                                // ratio of black to white pixels
-                                if(TrainingSet.ratioOfPixels(boundingBox.getImage(originalImage, components)) > ratioOfPixelsThreshold) {
-                                    // semibreve rest
-                                    measure.addNote(new Note(k+1, "whole", dotted, k+1));
-                                    CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(255, 150, 150));
-                                    continue;
-                                }
-                            } else if(Math.abs(boundingBox.yEnd - stave.get(2).getYPosition()) < tolerance) {
-                                // ratio of black to white pixels
-                                if(TrainingSet.ratioOfPixels(boundingBox.getImage(originalImage, components)) > ratioOfPixelsThreshold) {
-                                    // minim rest
-                                    measure.addNote(new Note(k+1, "half", dotted, k+1));
-                                    CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(255, 150, 150));
-                                    continue;
-                                }
+                    // dimensions
+                    if(boundingBox.getWidth() > staveSpaceWidth && boundingBox.getWidth() < 2*staveSpaceWidth &&
+                            boundingBox.getHeight() > staveSpaceWidth/2 && boundingBox.getHeight() < staveSpaceWidth) {
+                        // vertical position
+                        if(Math.abs(boundingBox.yStart - stave.get(1).getYPosition()) < tolerance) {
+                            // ratio of black to white pixels
+                            if(ratioOfPixels(boundingBox.getImage(originalImage, components)) > ratioOfPixelsThreshold) {
+                                // semibreve rest
+                                measure.addNote(new Note(k+1, "whole", dotted, k+1));
+                                CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(255, 150, 150));
+                                continue;
                             }
-                        } else if(boundingBox.getWidth() > staveSpaceWidth && boundingBox.getWidth() < 1.3*staveSpaceWidth &&
-                                boundingBox.getHeight() > 2.5*staveSpaceWidth && boundingBox.getHeight() < 3.5*staveSpaceWidth) {
-                            // vertical position
-                            if(Math.abs(boundingBox.getYPosition() - stave.get(2).getYPosition()) < staveSpaceWidth/2) {
-                                // shape
-                                if(trainingSet.isCrotchetRest(boundingBox.getImage(originalImage, components))) {
-                                    // crotchet rest
-                                    measure.addNote(new Note(k+1, "quarter", dotted, k+1));
-                                    CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(0, 150, 255));
-                                    continue;
-                                }
+                        } else if(Math.abs(boundingBox.yEnd - stave.get(2).getYPosition()) < tolerance) {
+                            // ratio of black to white pixels
+                            if(ratioOfPixels(boundingBox.getImage(originalImage, components)) > ratioOfPixelsThreshold) {
+                                // minim rest
+                                measure.addNote(new Note(k+1, "half", dotted, k+1));
+                                CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(255, 150, 150));
+                                continue;
                             }
-                        } else if(boundingBox.getWidth() > 2*staveSpaceWidth/3 && boundingBox.getWidth() < 1.5*staveSpaceWidth &&
-                                boundingBox.getHeight() > 1.3*staveSpaceWidth && boundingBox.getHeight() < 2*staveSpaceWidth) {
-                            // vertical position
-                            if(Math.abs(boundingBox.yStart - stave.get(1).getYPosition()) < staveSpaceWidth/2 &&
-                                    Math.abs(boundingBox.yEnd - stave.get(3).getYPosition()) < staveSpaceWidth/2) {
-                                // shape
-                                if(trainingSet.isQuaverRest(boundingBox.getImage(originalImage, components))) {
-                                    // quaver rest
-                                    measure.addNote(new Note(k+1, "eighth", dotted, k+1));
-                                    CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(255, 0, 150));
-                                    continue;
-                                }
+                        }
+                    } else if(boundingBox.getWidth() > staveSpaceWidth && boundingBox.getWidth() < 1.3*staveSpaceWidth &&
+                            boundingBox.getHeight() > 2.5*staveSpaceWidth && boundingBox.getHeight() < 3.5*staveSpaceWidth) {
+                        // vertical position
+                        if(Math.abs(boundingBox.getYPosition() - stave.get(2).getYPosition()) < staveSpaceWidth/2) {
+                            // shape
+                            if(shapeCache.test("isCrotchetRest", boundingBox.getImage(originalImage, components), 0,
+                                    trainingSet::isCrotchetRest)) {
+                                // crotchet rest
+                                measure.addNote(new Note(k+1, "quarter", dotted, k+1));
+                                CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(0, 150, 255));
+                                continue;
                             }
-                        } else if(boundingBox.getWidth() > staveSpaceWidth && boundingBox.getWidth() < 2*staveSpaceWidth &&
-                                boundingBox.getHeight() > 2.3*staveSpaceWidth && boundingBox.getHeight() < 3*staveSpaceWidth) {
-                            // vertical position
-                            if(Math.abs(boundingBox.yStart - stave.get(1).getYPosition()) < staveSpaceWidth/2 &&
-                                    Math.abs(boundingBox.yEnd - stave.get(4).getYPosition()) < staveSpaceWidth/2) {
-                                // shape
-                                if(trainingSet.isSemiquaverRest(boundingBox.getImage(originalImage, components))) {
-                                    // semiquaver rest
-                                    measure.addNote(new Note(k+1, "16th", dotted, k+1));
-                                    CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(255, 0, 255));
-                                    continue;
-                                }
+                        }
+                    } else if(boundingBox.getWidth() > 2*staveSpaceWidth/3 && boundingBox.getWidth() < 1.5*staveSpaceWidth &&
+                            boundingBox.getHeight() > 1.3*staveSpaceWidth && boundingBox.getHeight() < 2*staveSpaceWidth) {
+                        // vertical position
+                        if(Math.abs(boundingBox.yStart - stave.get(1).getYPosition()) < staveSpaceWidth/2 &&
+                                Math.abs(boundingBox.yEnd - stave.get(3).getYPosition()) < staveSpaceWidth/2) {
+                            // shape
+                            if(shapeCache.test("isQuaverRest", boundingBox.getImage(originalImage, components), 0,
+                                    trainingSet::isQuaverRest)) {
+                                // quaver rest
+                                measure.addNote(new Note(k+1, "eighth", dotted, k+1));
+                                CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(255, 0, 150));
+                                continue;
                             }
                         }
+                    } else if(boundingBox.getWidth() > staveSpaceWidth && boundingBox.getWidth() < 2*staveSpaceWidth &&
+                            boundingBox.getHeight() > 2.3*staveSpaceWidth && boundingBox.getHeight() < 3*staveSpaceWidth) {
+                        // vertical position
+                        if(Math.abs(boundingBox.yStart - stave.get(1).getYPosition()) < staveSpaceWidth/2 &&
+                                Math.abs(boundingBox.yEnd - stave.get(4).getYPosition()) < staveSpaceWidth/2) {
+                            // shape
+                            if(shapeCache.test("isSemiquaverRest", boundingBox.getImage(originalImage, components), 0,
+                                    trainingSet::isSemiquaverRest)) {
+                                // semiquaver rest
+                                measure.addNote(new Note(k+1, "16th", dotted, k+1));
+                                CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(255, 0, 255));
+                                continue;
+                            }
+                        }
+                    }
 
-                        // note or chord
-                        boolean chord = false;
+                    // note or chord
+                    boolean chord = false;
 
-                        // count notes in the chord
-                        int notes = 0;
-                        for(int l=0; l < 15; l++) {
-                            if(boundingBox.getHeight() > l*staveSpaceWidth + 4*staveSpaceWidth/5 &&
-                                    boundingBox.getHeight() < l*staveSpaceWidth + 1.4*staveSpaceWidth) {
-                                notes = l+1;
-                                break;
-                            }
+                    // count notes in the chord
+                    int notes = 0;
+                    for(int l=0; l < 15; l++) {
+                        if(boundingBox.getHeight() > l*staveSpaceWidth + 4*staveSpaceWidth/5 &&
+                                boundingBox.getHeight() < l*staveSpaceWidth + 1.4*staveSpaceWidth) {
+                            notes = l+1;
+                            break;
                         }
-                        if(notes == 0) {
-                            continue;
+                    }
+                    if(notes == 0) {
+                        continue;
+                    }
+                    if(notes > 1) {
+                        // split the chord
+                        for(int l=0; l<notes; l++) {
+                            BoundingBox newComponent = new BoundingBox(
+                                    boundingBox.xStart,
+                                    boundingBox.yStart + l*boundingBox.getHeight()/notes,
+                                    boundingBox.xEnd,
+                                    boundingBox.yStart + (l+1)*boundingBox.getHeight()/notes,
+                                    boundingBox.label);
+                            relevantComponents.add(m+1, newComponent);
+                            CCA.drawBoundingBox(image, newComponent, ColorOperations.WHITE);
                         }
-                        if(notes > 1) {
-                            // split the chord
-                            for(int l=0; l<notes; l++) {
-                                BoundingBox newComponent = new BoundingBox(
-                                        boundingBox.xStart,
-                                        boundingBox.yStart + l*boundingBox.getHeight()/notes,
-                                        boundingBox.xEnd,
-                                        boundingBox.yStart + (l+1)*boundingBox.getHeight()/notes,
-                                        boundingBox.label);
-                                relevantComponents.add(m+1, newComponent);
-                                CCA.drawBoundingBox(image, newComponent, ColorOperations.white());
-                            }
+                        continue;
+                    }
+
+                    // is above or below the stave
+                    if(boundingBox.getYPosition() < stave.get(0).getYPosition() - 3*staveSpaceWidth/4 ||
+                            boundingBox.getYPosition() > stave.get(4).getYPosition() + 3*staveSpaceWidth/4) {
+                        // is there a ledger line
+                        int ledgerLines = countPeaks(boundingBox.getImage(veryOriginalImage, components), 'x');
+                        if(ledgerLines != 1 && ledgerLines != 2) {
+                            // discard
+                            CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(0, 0, 0));
                             continue;
                         }
+                    }
 
-                        // is above or below the stave
-                        if(boundingBox.getYPosition() < stave.get(0).getYPosition() - 3*staveSpaceWidth/4 ||
-                                boundingBox.getYPosition() > stave.get(4).getYPosition() + 3*staveSpaceWidth/4) {
-                            // is there a ledger line
-                            int ledgerLines = countPeaks(boundingBox.getImage(veryOriginalImage, components), 'x');
-                            if(ledgerLines != 1 && ledgerLines != 2) {
-                                // discard
-                                CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(0, 0, 0));
-                                continue;
-                            }
-                        }
+                    // dimensions
+                    if(boundingBox.getHeight() > 0.9*staveSpaceWidth && boundingBox.getHeight() < 1.3*staveSpaceWidth) {
+                        if(boundingBox.getWidth() > staveSpaceWidth && boundingBox.getWidth() < 3*staveSpaceWidth) {
+                            // is middle filled
+                            if(TrainingSet.ratioOfPixels(boundingBox.getImage(originalImage, components).getSubimage(
+                                    boundingBox.getWidth()/3, boundingBox.getHeight()/3,
+                                    boundingBox.getWidth()/3, boundingBox.getHeight()/3)) > ratioOfPixelsThreshold) {
+                                // filled note head
+                                if(Math.abs(lastNoteXPosition - boundingBox.getXPosition()) < staveSpaceWidth/2) {
+                                    chord = true;
+                                }
 
-                        // dimensions
-                        if(boundingBox.getHeight() > 0.9*staveSpaceWidth && boundingBox.getHeight() < 1.3*staveSpaceWidth) {
-                            if(boundingBox.getWidth() > staveSpaceWidth && boundingBox.getWidth() < 3*staveSpaceWidth) {
-                                // is middle filled
-                                if(TrainingSet.ratioOfPixels(boundingBox.getImage(originalImage, components).getSubimage(
-                                        boundingBox.getWidth()/3, boundingBox.getHeight()/3,
-                                        boundingBox.getWidth()/3, boundingBox.getHeight()/3)) > ratioOfPixelsThreshold) {
-                                    // filled note head
-                                    if(Math.abs(lastNoteXPosition - boundingBox.getXPosition()) < staveSpaceWidth/2) {
-                                        chord = true;
+                                // is attached to a tail
+                                boolean isTailed = false;
+                                for(BoundingBox quaverTail : quaverTails) {
+                                    if((boundingBox.yStart > quaverTail.yEnd - staveSpaceWidth &&
+                                            boundingBox.yStart - quaverTail.yEnd < 4*staveSpaceWidth &&
+                                            Math.abs(boundingBox.xEnd - quaverTail.xStart) < 3*staveSpaceWidth/4) ||
+                                            (quaverTail.yStart > boundingBox.yEnd - staveSpaceWidth &&
+                                                    quaverTail.yStart - boundingBox.yEnd < 4*staveSpaceWidth &&
+                                                    Math.abs(boundingBox.xStart - quaverTail.xStart) < 3*staveSpaceWidth/4)){
+                                        isTailed = true;
+                                        break;
                                     }
+                                }
+                                if(isTailed) {
+                                    // tailed quaver
+                                    if(Math.abs(lastNoteXPosition - boundingBox.getXPosition()) < 2*staveSpaceWidth &&
+                                            lastNoteType != "" && lastNoteType != "eighth") {
+                                        continue;
+                                    }
+                                    lastNoteType = "eighth";
 
-                                    // is attached to a tail
-                                    boolean isTailed = false;
-                                    for(BoundingBox quaverTail : quaverTails) {
-                                        if((boundingBox.yStart > quaverTail.yEnd - staveSpaceWidth &&
-                                                boundingBox.yStart - quaverTail.yEnd < 4*staveSpaceWidth &&
-                                                Math.abs(boundingBox.xEnd - quaverTail.xStart) < 3*staveSpaceWidth/4) ||
-                                                (quaverTail.yStart > boundingBox.yEnd - staveSpaceWidth &&
-                                                        quaverTail.yStart - boundingBox.yEnd < 4*staveSpaceWidth &&
-                                                        Math.abs(boundingBox.xStart - quaverTail.xStart) < 3*staveSpaceWidth/4)){
-                                            isTailed = true;
-                                            break;
+                                    lastNoteXPosition = boundingBox.getXPosition();
+                                    measure.addNote(getNote(boundingBox.getYPosition(), stave,
+                                            tieType, k+1, "eighth", dotted, k+1, null,
+                                            accidental, chord, context));
+                                    CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(0, 255, 0));
+                                    continue;
+                                }
+
+                                // is beamed
+                                ArrayList<String> relevantBeams = new ArrayList<>();
+                                BoundingBox relevantStem = null;
+                                BoundingBox relevantBeam = null;
+                                for(BoundingBox beam : beams) {
+                                    // find the stem connecting the note head to the beam
+                                    for(BoundingBox verticalLine : verticalLines) {
+                                        if(isStemFor(boundingBox, verticalLine) &&
+                                                beam.yEnd > verticalLine.yStart - staveSpaceWidth/2 &&
+                                                beam.yStart < verticalLine.yEnd + staveSpaceWidth/2) {
+                                            int noRelevantBeams = relevantBeams.size();
+                                            if(Math.abs(verticalLine.getXPosition() - beam.xStart) < staveSpaceWidth) {
+                                                if(hooks.contains(beam)) {
+                                                    relevantBeams.add("forward hook");
+                                                } else {
+                                                    relevantBeams.add("begin");
+                                                }
+                                            } else if(Math.abs(verticalLine.getXPosition() - beam.xEnd) < staveSpaceWidth) {
+                                                if(hooks.contains(beam)) {
+                                                    relevantBeams.add("backward hook");
+                                                } else {
+                                                    relevantBeams.add("end");
+                                                }
+                                            } else if(beam.xStart < verticalLine.getXPosition() && beam.xEnd > verticalLine.getXPosition()) {
+                                                relevantBeams.add("continue");
+                                            }
+                                            if(relevantBeams.size() > noRelevantBeams) {
+                                                relevantStem = verticalLine;
+                                                relevantBeam = beam;
+                                                CCA.drawBoundingBox(image, verticalLine, ColorOperations.WHITE);
+                                                break;
+                                            }
                                         }
                                     }
-                                    if(isTailed) {
-                                        // tailed quaver
+                                }
+                                if(relevantBeams.size() == 1) {
+                                    String secondBeamType = findSecondBeam(image, relevantBeam.getImage(originalImage, components), relevantBeam, relevantStem);
+                                    if(secondBeamType != null) {
+                                        relevantBeams.add(secondBeamType);
+                                    }
+                                }
+                                switch(relevantBeams.size()) {
+                                    case 0:
+                                        break;
+                                    case 1:
+                                        // beamed quaver
                                         if(Math.abs(lastNoteXPosition - boundingBox.getXPosition()) < 2*staveSpaceWidth &&
                                                 lastNoteType != "" && lastNoteType != "eighth") {
                                             continue;
@@ -995,250 +1290,220 @@ public class Recognizer {
 
                                         lastNoteXPosition = boundingBox.getXPosition();
                                         measure.addNote(getNote(boundingBox.getYPosition(), stave,
-                                                tieType, k+1, "eighth", dotted, k+1, null,
-                                                accidental, chord));
+                                                tieType, k+1, "eighth", dotted, k+1, relevantBeams,
+                                                accidental, chord, context));
                                         CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(0, 255, 0));
                                         continue;
-                                    }
-
-                                    // is beamed
-                                    ArrayList<String> relevantBeams = new ArrayList<>();
-                                    BoundingBox relevantStem = null;
-                                    BoundingBox relevantBeam = null;
-                                    for(BoundingBox beam : beams) {
-                                        // find the stem connecting the note head to the beam
-                                        for(BoundingBox verticalLine : verticalLines) {
-                                            if(isStemFor(boundingBox, verticalLine) &&
-                                                    beam.yEnd > verticalLine.yStart - staveSpaceWidth/2 &&
-                                                    beam.yStart < verticalLine.yEnd + staveSpaceWidth/2) {
-                                                int noRelevantBeams = relevantBeams.size();
-                                                if(Math.abs(verticalLine.getXPosition() - beam.xStart) < staveSpaceWidth) {
-                                                    if(hooks.contains(beam)) {
-                                                        relevantBeams.add("forward hook");
-                                                    } else {
-                                                        relevantBeams.add("begin");
-                                                    }
-                                                } else if(Math.abs(verticalLine.getXPosition() - beam.xEnd) < staveSpaceWidth) {
-                                                    if(hooks.contains(beam)) {
-                                                        relevantBeams.add("backward hook");
-                                                    } else {
-                                                        relevantBeams.add("end");
-                                                    }
-                                                } else if(beam.xStart < verticalLine.getXPosition() && beam.xEnd > verticalLine.getXPosition()) {
-                                                    relevantBeams.add("continue");
-                                                }
-                                                if(relevantBeams.size() > noRelevantBeams) {
-                                                    relevantStem = verticalLine;
-                                                    relevantBeam = beam;
-                                                    CCA.drawBoundingBox(image, verticalLine, ColorOperations.white());
-                                                    break;
-                                                }
-                                            }
-                                        }
-                                    }
-                                    if(relevantBeams.size() == 1) {
-                                        String secondBeamType = findSecondBeam(image, relevantBeam.getImage(originalImage, components), relevantBeam, relevantStem);
-                                        if(secondBeamType != null) {
-                                            relevantBeams.add(secondBeamType);
+                                    default:
+                                        // beamed semiquaver
+                                        if(Math.abs(lastNoteXPosition - boundingBox.getXPosition()) < 2*staveSpaceWidth &&
+                                                lastNoteType != "" && lastNoteType != "16th") {
+                                            continue;
                                         }
-                                    }
-                                    switch(relevantBeams.size()) {
-                                        case 0:
-                                            break;
-                                        case 1:
-                                            // beamed quaver
-                                            if(Math.abs(lastNoteXPosition - boundingBox.getXPosition()) < 2*staveSpaceWidth &&
-                                                    lastNoteType != "" && lastNoteType != "eighth") {
-                                                continue;
-                                            }
-                                            lastNoteType = "eighth";
+                                        lastNoteType = "16th";
 
-                                            lastNoteXPosition = boundingBox.getXPosition();
-                                            measure.addNote(getNote(boundingBox.getYPosition(), stave,
-                                                    tieType, k+1, "eighth", dotted, k+1, relevantBeams,
-                                                    accidental, chord));
-                                            CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(0, 255, 0));
-                                            continue;
-                                        default:
-                                            // beamed semiquaver
-                                            if(Math.abs(lastNoteXPosition - boundingBox.getXPosition()) < 2*staveSpaceWidth &&
-                                                    lastNoteType != "" && lastNoteType != "16th") {
-                                                continue;
-                                            }
-                                            lastNoteType = "16th";
+                                        lastNoteXPosition = boundingBox.getXPosition();
+                                        measure.addNote(getNote(boundingBox.getYPosition(), stave,
+                                                tieType, k+1, "16th", dotted, k+1, relevantBeams,
+                                                accidental, chord, context));
+                                        CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(255, 255, 0));
+                                        continue;
+                                }
 
-                                            lastNoteXPosition = boundingBox.getXPosition();
-                                            measure.addNote(getNote(boundingBox.getYPosition(), stave,
-                                                    tieType, k+1, "16th", dotted, k+1, relevantBeams,
-                                                    accidental, chord));
-                                            CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(255, 255, 0));
-                                            continue;
+                                // is connected to a stem
+                                boolean stemFound = false;
+                                for(BoundingBox verticalLine : verticalLines) {
+                                    if(isStemFor(boundingBox, verticalLine)) {
+                                        stemFound = true;
+                                        CCA.drawBoundingBox(image, verticalLine, ColorOperations.WHITE);
+                                        break;
+                                    }
+                                }
+                                if(stemFound) {
+                                    // crotchet
+                                    if(Math.abs(lastNoteXPosition - boundingBox.getXPosition()) < 2*staveSpaceWidth &&
+                                            lastNoteType != "" && lastNoteType != "quarter") {
+                                        continue;
                                     }
+                                    lastNoteType = "quarter";
+
+                                    lastNoteXPosition = boundingBox.getXPosition();
+                                    measure.addNote(getNote(boundingBox.getYPosition(), stave,
+                                            tieType, k+1, "quarter", dotted, k+1, null,
+                                            accidental, chord, context));
+                                    CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(150, 150, 0));
+                                    continue;
+                                }
+                            }
 
+                            // number of vertical lines
+                            switch(countPeaks(boundingBox.getImage(originalImage, components), 'y')) {
+                                case 0:
+                                case 1:
                                     // is connected to a stem
                                     boolean stemFound = false;
                                     for(BoundingBox verticalLine : verticalLines) {
                                         if(isStemFor(boundingBox, verticalLine)) {
                                             stemFound = true;
-                                            CCA.drawBoundingBox(image, verticalLine, ColorOperations.white());
+                                            CCA.drawBoundingBox(image, verticalLine, ColorOperations.WHITE);
                                             break;
                                         }
                                     }
                                     if(stemFound) {
-                                        // crotchet
-                                        if(Math.abs(lastNoteXPosition - boundingBox.getXPosition()) < 2*staveSpaceWidth &&
-                                                lastNoteType != "" && lastNoteType != "quarter") {
-                                            continue;
-                                        }
-                                        lastNoteType = "quarter";
-
-                                        lastNoteXPosition = boundingBox.getXPosition();
-                                        measure.addNote(getNote(boundingBox.getYPosition(), stave,
-                                                tieType, k+1, "quarter", dotted, k+1, null,
-                                                accidental, chord));
-                                        CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(150, 150, 0));
-                                        continue;
-                                    }
-                                }
-
-                                // number of vertical lines
-                                switch(countPeaks(boundingBox.getImage(originalImage, components), 'y')) {
-                                    case 0:
-                                    case 1:
-                                        // is connected to a stem
-                                        boolean stemFound = false;
-                                        for(BoundingBox verticalLine : verticalLines) {
-                                            if(isStemFor(boundingBox, verticalLine)) {
-                                                stemFound = true;
-                                                CCA.drawBoundingBox(image, verticalLine, ColorOperations.white());
-                                                break;
-                                            }
-                                        }
-                                        if(stemFound) {
-                                            // minim
-                                            if(Math.abs(lastNoteXPosition - boundingBox.getXPosition()) < staveSpaceWidth/2) {
-                                                chord = true;
-                                            }
-
-                                            if(Math.abs(lastNoteXPosition - boundingBox.getXPosition()) < 2*staveSpaceWidth &&
-                                                    lastNoteType != "" && lastNoteType != "half") {
-                                                continue;
-                                            }
-                                            lastNoteType = "half";
-
-                                            lastNoteXPosition = boundingBox.getXPosition();
-                                            measure.addNote(getNote(boundingBox.getYPosition(), stave,
-                                                    tieType, k+1, "half", dotted, k+1, null,
-                                                    accidental, chord));
-                                            CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(150, 0, 150));
-                                            continue;
-                                        }
-                                        break;
-                                    case 2:
-                                        // semibreve
+                                        // minim
                                         if(Math.abs(lastNoteXPosition - boundingBox.getXPosition()) < staveSpaceWidth/2) {
                                             chord = true;
                                         }
 
                                         if(Math.abs(lastNoteXPosition - boundingBox.getXPosition()) < 2*staveSpaceWidth &&
-                                                lastNoteType != "" && lastNoteType != "whole") {
+                                                lastNoteType != "" && lastNoteType != "half") {
                                             continue;
                                         }
-                                        lastNoteType = "whole";
+                                        lastNoteType = "half";
 
                                         lastNoteXPosition = boundingBox.getXPosition();
                                         measure.addNote(getNote(boundingBox.getYPosition(), stave,
-                                                tieType, k+1, "whole", dotted, k+1, null,
-                                                accidental, chord));
-                                        CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(0, 50, 150));
+                                                tieType, k+1, "half", dotted, k+1, null,
+                                                accidental, chord, context));
+                                        CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(150, 0, 150));
                                         continue;
-                                }
-                            }
-                            if(boundingBox.getWidth() > 2*staveSpaceWidth/3 && boundingBox.getWidth() < 1.3*staveSpaceWidth) {
-                                // number of vertical lines
-                                switch(countPeaks(boundingBox.getImage(originalImage, components), 'y')) {
-                                    case 1:
-                                        // semibreve half
-
-                                        // discard if the other half already recognised
-                                        boolean otherHalfRecognised = false;
-                                        for(BoundingBox semibreveHalf : semibreveHalves) {
-                                            if((boundingBox.xStart - semibreveHalf.xEnd < staveSpaceWidth/5 ||
-                                                    semibreveHalf.xStart - boundingBox.xEnd < staveSpaceWidth/5) &&
-                                                    Math.abs(semibreveHalf.getYPosition() - boundingBox.getYPosition()) < tolerance) {
-                                                otherHalfRecognised = true;
-                                                break;
-                                            }
-                                        }
-                                        if(otherHalfRecognised) {
-                                            CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(0, 0, 0));
-                                            continue;
-                                        }
+                                    }
+                                    break;
+                                case 2:
+                                    // semibreve
+                                    if(Math.abs(lastNoteXPosition - boundingBox.getXPosition()) < staveSpaceWidth/2) {
+                                        chord = true;
+                                    }
 
-                                        int actualXPosition = boundingBox.getXPosition() + staveSpaceWidth/2;
-                                        if(Math.abs(lastNoteXPosition - actualXPosition) < tolerance) {
-                                            chord = true;
-                                        }
+                                    if(Math.abs(lastNoteXPosition - boundingBox.getXPosition()) < 2*staveSpaceWidth &&
+                                            lastNoteType != "" && lastNoteType != "whole") {
+                                        continue;
+                                    }
+                                    lastNoteType = "whole";
 
-                                        if(Math.abs(lastNoteXPosition - boundingBox.getXPosition()) < 2*staveSpaceWidth &&
-                                                lastNoteType != "" && lastNoteType != "whole") {
-                                            continue;
+                                    lastNoteXPosition = boundingBox.getXPosition();
+                                    measure.addNote(getNote(boundingBox.getYPosition(), stave,
+                                            tieType, k+1, "whole", dotted, k+1, null,
+                                            accidental, chord, context));
+                                    CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(0, 50, 150));
+                                    continue;
+                            }
+                        }
+                        if(boundingBox.getWidth() > 2*staveSpaceWidth/3 && boundingBox.getWidth() < 1.3*staveSpaceWidth) {
+                            // number of vertical lines
+                            switch(countPeaks(boundingBox.getImage(originalImage, components), 'y')) {
+                                case 1:
+                                    // semibreve half
+
+                                    // discard if the other half already recognised
+                                    boolean otherHalfRecognised = false;
+                                    for(BoundingBox semibreveHalf : context.semibreveHalves) {
+                                        if((boundingBox.xStart - semibreveHalf.xEnd < staveSpaceWidth/5 ||
+                                                semibreveHalf.xStart - boundingBox.xEnd < staveSpaceWidth/5) &&
+                                                Math.abs(semibreveHalf.getYPosition() - boundingBox.getYPosition()) < tolerance) {
+                                            otherHalfRecognised = true;
+                                            break;
                                         }
-                                        lastNoteType = "whole";
+                                    }
+                                    if(otherHalfRecognised) {
+                                        CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(0, 0, 0));
+                                        continue;
+                                    }
 
-                                        lastNoteXPosition = actualXPosition;
-                                        semibreveHalves.add(boundingBox);
-                                        measure.addNote(getNote(boundingBox.getYPosition(), stave,
-                                                tieType, k+1, "whole", dotted, k+1, null,
-                                                accidental, chord));
-                                        CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(0, 150, 150));
+                                    int actualXPosition = boundingBox.getXPosition() + staveSpaceWidth/2;
+                                    if(Math.abs(lastNoteXPosition - actualXPosition) < tolerance) {
+                                        chord = true;
+                                    }
+
+                                    if(Math.abs(lastNoteXPosition - boundingBox.getXPosition()) < 2*staveSpaceWidth &&
+                                            lastNoteType != "" && lastNoteType != "whole") {
                                         continue;
-                                }
+                                    }
+                                    lastNoteType = "whole";
+
+                                    lastNoteXPosition = actualXPosition;
+                                    context.semibreveHalves.add(boundingBox);
+                                    measure.addNote(getNote(boundingBox.getYPosition(), stave,
+                                            tieType, k+1, "whole", dotted, k+1, null,
+                                            accidental, chord, context));
+                                    CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(0, 150, 150));
+                                    continue;
                             }
                         }
-
-                        CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(0, 0, 0));
                     }
 
-                    measure.addBackup();
+                    CCA.drawBoundingBox(image, boundingBox, ColorOperations.colorToRgb(0, 0, 0));
                 }
 
-                if(!measure.isEmpty()) {
-                    measures.add(measure);
-                }
+                measure.addBackup();
             }
 
-            ArrayList<String> clefsInThisSystem = new ArrayList<>();
-            for(int j=0; j<stavesInSystem; j++) {
-                if(whichClef.containsKey(staves.get(i+j))) {
-                    clefsInThisSystem.add(whichClef.get(staves.get(i+j)));
-                } else {
-                    System.out.println("No clef recognized on stave  " + (i+j));
-                }
+            if(!measure.isEmpty()) {
+                context.measures.add(measure);
             }
-            measures.get(firstBarInSystemIndex).addAttributes(fifths, 4, 4, clefsInThisSystem, stavesInSystem);
         }
-        measures.get(measures.size()-1).setLast();
+
+        context.fifths = fifths;
     }
 
     /**
-     * Generate a MusicXML file.
+     * Get the number of symbols recognized of each type.
+     * @return The counts by type
      */
-    public void generateXML() {
-        try {
-            File template = new File("xmlHeader.xml");
-            File output = new File("output.xml");
-            Files.copy(template.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    public Map<String, Integer> getSymbolCounts() {
+        int noNotes = 0;
+        for(Measure measure : measures) {
+            noNotes += measure.getNumberOfNotes();
+        }
 
-            for(Measure measure : measures) {
-                Files.write(output.toPath(), measure.getXML().getBytes(), StandardOpenOption.APPEND);
-            }
+        Map<String, Integer> counts = new LinkedHashMap<>();
+        counts.put("components", boundingBoxes.size());
+        counts.put("componentsLeftForSystems", componentsLeft);
+        counts.put("dots", dots.size());
+        counts.put("beams", beams.size());
+        counts.put("quaverTails", quaverTails.size());
+        counts.put("hooks", hooks.size());
+        counts.put("sharps", sharps.size());
+        counts.put("sharpBeams", sharpBeams.size());
+        counts.put("flats", flats.size());
+        counts.put("naturalBeams", naturalBeams.size());
+        counts.put("semibreveHalves", semibreveHalves.size());
+        counts.put("ties", ties.size());
+        counts.put("measures", measures.size());
+        counts.put("shapeTests", shapeCache.getLookups());
+        counts.put("shapeCacheHits", shapeCache.getHits());
+        counts.put("shapeCacheHitPercent",
+                shapeCache.getLookups() == 0 ? 0 : 100*shapeCache.getHits()/shapeCache.getLookups());
+        counts.put("notesAndRests", noNotes);
+        return counts;
+    }
 
-            String ending = "\r\n\r\n\t" + "</part>";
-            ending += "\r\n" + "</score-partwise>";
-            Files.write(output.toPath(), ending.getBytes(), StandardOpenOption.APPEND);
+    /**
+     * Generate a MusicXML file called output.xml.
+     */
+    public void generateXML() {
+        try {
+            generateXML(new File("output.xml"));
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
+
+    /**
+     * Generate a MusicXML file.
+     * @param output The file to be written
+     * @throws IOException if the file could not be written in full
+     */
+    public void generateXML(File output) throws IOException {
+        File template = new File("xmlHeader.xml");
+        Files.copy(template.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        for(Measure measure : measures) {
+            Files.write(output.toPath(), measure.getXML().getBytes(), StandardOpenOption.APPEND);
+        }
+
+        String ending = "\r\n\r\n\t" + "</part>";
+        ending += "\r\n" + "</score-partwise>";
+        Files.write(output.toPath(), ending.getBytes(), StandardOpenOption.APPEND);
+    }
 }
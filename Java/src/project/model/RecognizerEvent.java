@@ -0,0 +1,47 @@
+package project.model;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Java Flight Recorder event for an expensive test of the symbol recognition,
+ * so that the shapes which cost the most can be found.
+ */
+@Name("project.model.RecognizerCall")
+@Label("Recognizer Call")
+@Category({"Music Score Recognition", "Recognizer"})
+@Description("A test of the shape of a component")
+class RecognizerEvent extends Event {
+    @Label("Operation")
+    String operation;
+
+    @Label("Width")
+    int width;
+
+    @Label("Height")
+    int height;
+
+    @Label("Result")
+    String result;
+
+    /**
+     * Commit the event if it's recorded.
+     * @param operation The test
+     * @param width The width of the component
+     * @param height The height of the component
+     * @param result The result of the test
+     */
+    void report(String operation, int width, int height, Object result) {
+        end();
+        if(shouldCommit()) {
+            this.operation = operation;
+            this.width = width;
+            this.height = height;
+            this.result = String.valueOf(result);
+            commit();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package project.model;
+
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Properties;
+
+/**
+ * Keeps the MusicXML and the summary of the pages already recognized on disk,
+ * so that a page scanned again is not recognized again.
+ * <p>
+ * The results are found by a hash of the pixels of the decoded image and of
+ * the parameters of the stages, so a cached result is only used for the very
+ * same image recognized the same way. When the cache grows bigger than its
+ * maximum size, the least recently used results are deleted.
+ * </p>
+ */
+public class ResultCache {
+    private File directory;
+    private long maxSize;
+
+    /**
+     * Create a new cache.
+     * @param directory The directory the results are kept in, it's created if needed
+     * @param maxSize The maximum size of the results in bytes
+     */
+    public ResultCache(File directory, long maxSize) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        directory.mkdirs();
+    }
+
+    /**
+     * Get the key of an image: a hash of its pixels and of the parameters of the stages.
+     * @param image The decoded image
+     * @param options The options the image is recognized with that change its result, e.g.
+     * <code>"skewEpsilon=0.1"</code>
+     * @return The key
+     */
+    public static String key(BufferedImage image, String options) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+
+        String parameters = "binarizationThreshold=" + Deskewing.binarizationThreshold +
+                ";angleIncrement=" + Deskewing.angleIncrement +
+                ";maxAngle=" + Deskewing.maxAngle +
+                ";ratioOfPixelsThreshold=" + Recognizer.defaultRatioOfPixelsThreshold +
+                ";" + options;
+        digest.update(parameters.getBytes(StandardCharsets.UTF_8));
+
+        int width = image.getWidth();
+        ByteBuffer bytes = ByteBuffer.allocate(Math.max(4*width, 8));
+        bytes.putInt(width).putInt(image.getHeight());
+        bytes.flip();
+        digest.update(bytes);
+
+        int[] row = new int[width];
+        for(int j=0; j<image.getHeight(); j++) {
+            image.getRGB(0, j, width, 1, row, 0, width);
+            bytes.clear();
+            bytes.asIntBuffer().put(row);
+            digest.update(bytes.array(), 0, 4*width);
+        }
+
+        StringBuilder key = new StringBuilder();
+        for(byte b : digest.digest()) {
+            key.append(String.format("%02x", b));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Copy the cached MusicXML of an image.
+     * @param key The key of the image
+     * @param output The file the MusicXML is copied to
+     * @return True if the result was cached, false if the image has to be recognized
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized boolean get(String key, File output) throws IOException {
+        File xml = new File(directory, key + ".xml");
+        if(!xml.isFile()) {
+            return false;
+        }
+        Files.copy(xml.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        // mark it as recently used
+        long now = System.currentTimeMillis();
+        xml.setLastModified(now);
+        new File(directory, key + ".properties").setLastModified(now);
+        return true;
+    }
+
+    /**
+     * Get the cached summary of an image.
+     * @param key The key of the image
+     * @return The summary, or null if it's not cached
+     * @throws IOException if the summary cannot be read
+     */
+    public synchronized Properties getSummary(String key) throws IOException {
+        File file = new File(directory, key + ".properties");
+        if(!file.isFile()) {
+            return null;
+        }
+        Properties summary = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            summary.load(in);
+        }
+        return summary;
+    }
+
+    /**
+     * Add the result of an image, evicting the least recently used results if the cache is too big.
+     * @param key The key of the image
+     * @param xml The MusicXML file of the image
+     * @param summary The summary of the stages
+     * @throws IOException if the result cannot be written
+     */
+    public synchronized void put(String key, File xml, Properties summary) throws IOException {
+        // write to temporary files first so that a result is never found half written
+        File xmlPart = new File(directory, key + ".xml.part");
+        File summaryPart = new File(directory, key + ".properties.part");
+        Files.copy(xml.toPath(), xmlPart.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        try (OutputStream out = new FileOutputStream(summaryPart)) {
+            summary.store(out, null);
+        }
+        Files.move(summaryPart.toPath(), new File(directory, key + ".properties").toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        Files.move(xmlPart.toPath(), new File(directory, key + ".xml").toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+
+        evict();
+    }
+
+    /**
+     * Delete the least recently used results until the cache is not bigger than its maximum size.
+     */
+    private void evict() {
+        File[] xmlFiles = directory.listFiles((dir, name) -> name.endsWith(".xml"));
+        if(xmlFiles == null) {
+            return;
+        }
+
+        long size = 0;
+        for(File xml : xmlFiles) {
+            size += xml.length() + summaryFile(xml).length();
+        }
+
+        Arrays.sort(xmlFiles, Comparator.comparingLong(File::lastModified));
+        for(File xml : xmlFiles) {
+            if(size <= maxSize) {
+                break;
+            }
+            File summary = summaryFile(xml);
+            size -= xml.length() + summary.length();
+            xml.delete();
+            summary.delete();
+        }
+    }
+
+    /**
+     * Get the summary file of a cached MusicXML file.
+     * @param xml The MusicXML file
+     * @return The summary file
+     */
+    private static File summaryFile(File xml) {
+        String name = xml.getName();
+        return new File(xml.getParentFile(), name.substring(0, name.length()-".xml".length()) + ".properties");
+    }
+}
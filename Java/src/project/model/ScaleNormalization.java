@@ -0,0 +1,162 @@
+package project.model;
+
+import project.utils.ImageFile;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+/**
+ * Estimates the thickness of the stave lines and the stave space of a page
+ * before it's processed, and scales the page down so that its stave space is
+ * a given number of pixels.
+ * <p>
+ * The estimate comes from the vertical runs of black and white pixels of the
+ * page: the most common black run is the thickness of the stave lines and the
+ * most common white run the gap between two stave lines, as every column
+ * crossing a stave crosses five lines and four gaps. A high resolution scan can
+ * then be processed with a fraction of its pixels, as the later stages only
+ * need a few pixels per stave space.
+ * </p>
+ */
+public class ScaleNormalization {
+    private BufferedImage image;
+    private int lineThickness;
+    private int staveSpace;
+
+    // the grey value of every pixel value of a binary or indexed image
+    private int[] grayValues;
+
+    /**
+     * Estimate the stave lines of a page.
+     * @param image The page, as loaded by the model
+     */
+    public ScaleNormalization(BufferedImage image) {
+        this.image = image;
+        if(image.getType() != BufferedImage.TYPE_BYTE_GRAY && ImageFile.isGrayConvertible(image)) {
+            grayValues = ImageFile.getGrayValues(image);
+        }
+        estimate();
+    }
+
+    /**
+     * Get the most common thickness of the stave lines.
+     * @return The thickness in pixels, 0 if the page has no black pixels
+     */
+    public int getLineThickness() {
+        return lineThickness;
+    }
+
+    /**
+     * Get the most common distance between two adjacent stave lines, i.e. the
+     * thickness of a line and the gap to the next one.
+     * @return The stave space in pixels, 0 if the page has no stave lines
+     */
+    public int getStaveSpace() {
+        return staveSpace;
+    }
+
+    /**
+     * Get the page scaled down so that its stave space is the target one. Every
+     * pixel of the scaled page is the average grey value of the pixels it covers.
+     * @param targetStaveSpace The stave space wanted, in pixels
+     * @return The scaled TYPE_BYTE_GRAY page, or the page itself if its stave
+     * space is not bigger than the target or could not be estimated
+     */
+    public BufferedImage normalize(int targetStaveSpace) {
+        if(staveSpace <= targetStaveSpace || targetStaveSpace <= 0) {
+            return image;
+        }
+        double scale = (double)targetStaveSpace/staveSpace;
+        int width = Math.max(1, (int)Math.round(image.getWidth()*scale));
+        int height = Math.max(1, (int)Math.round(image.getHeight()*scale));
+
+        // the first column and row of the page covered by every column and row of the scaled page
+        int[] firstColumn = new int[width+1];
+        for(int i=0; i<=width; i++) {
+            firstColumn[i] = Math.min(image.getWidth(), (int)((long)i*image.getWidth()/width));
+        }
+        int[] firstRow = new int[height+1];
+        for(int j=0; j<=height; j++) {
+            firstRow[j] = Math.min(image.getHeight(), (int)((long)j*image.getHeight()/height));
+        }
+
+        BufferedImage scaledImage = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        WritableRaster scaledRaster = scaledImage.getRaster();
+        int[] row = new int[image.getWidth()];
+        int[] columnSums = new int[image.getWidth()];
+        int[] scaledRow = new int[width];
+        for(int j=0; j<height; j++) {
+            // add up the rows covered, then the columns covered
+            Arrays.fill(columnSums, 0);
+            for(int y=firstRow[j]; y<firstRow[j+1]; y++) {
+                ImageFile.readGrayRow(image, grayValues, 0, y, row.length, row);
+                for(int x=0; x<row.length; x++) {
+                    columnSums[x] += row[x];
+                }
+            }
+            int rows = firstRow[j+1] - firstRow[j];
+            for(int i=0; i<width; i++) {
+                long sum = 0;
+                for(int x=firstColumn[i]; x<firstColumn[i+1]; x++) {
+                    sum += columnSums[x];
+                }
+                int pixels = rows*(firstColumn[i+1] - firstColumn[i]);
+                scaledRow[i] = pixels == 0 ? 255 : (int)(sum/pixels);
+            }
+            scaledRaster.setSamples(0, j, width, 1, 0, scaledRow);
+        }
+        return scaledImage;
+    }
+
+    /**
+     * Find the most common vertical runs of black and white pixels.
+     */
+    private void estimate() {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] blackRuns = new int[height+1];
+        int[] whiteRuns = new int[height+1];
+
+        // the colour and length of the run each column is in
+        boolean[] black = new boolean[width];
+        int[] runs = new int[width];
+        // the runs starting at the top of the page are not counted, they may be cut
+        boolean[] counted = new boolean[width];
+        int[] row = new int[width];
+        for(int j=0; j<height; j++) {
+            ImageFile.readGrayRow(image, grayValues, 0, j, row.length, row);
+            for(int i=0; i<width; i++) {
+                boolean pixelBlack = row[i] < Deskewing.binarizationThreshold;
+                if(j > 0 && pixelBlack != black[i]) {
+                    if(counted[i]) {
+                        (black[i] ? blackRuns : whiteRuns)[runs[i]]++;
+                    }
+                    counted[i] = true;
+                    runs[i] = 0;
+                }
+                black[i] = pixelBlack;
+                runs[i]++;
+            }
+        }
+
+        lineThickness = mostCommon(blackRuns);
+        int gap = mostCommon(whiteRuns);
+        staveSpace = lineThickness == 0 || gap == 0 ? 0 : lineThickness + gap;
+    }
+
+    /**
+     * Get the most common run length.
+     * @param runs The number of runs of every length
+     * @return The most common length, 0 if there are no runs
+     */
+    private static int mostCommon(int[] runs) {
+        int length = 0;
+        for(int i=1; i<runs.length; i++) {
+            if(runs[i] > runs[length]) {
+                length = i;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,118 @@
+package project.model;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Remembers the outcomes of the shape tests of the components of a page, so
+ * that the many identical note heads, beams and rests of a page are only
+ * tested once.
+ * <p>
+ * A shape is the bitmap of a component, as made by
+ * <code>BoundingBox.getImage</code>, with the test and the parameter the test
+ * depends on, e.g. the stave space width. Bitmaps are compared in full rather
+ * than scaled down to a common size, as the tests have thresholds: a component
+ * close to one would otherwise get the outcome of a slightly different shape.
+ * </p>
+ */
+class ShapeCache {
+    private final Map<Shape, Object> outcomes = new ConcurrentHashMap<>();
+    private final AtomicInteger lookups = new AtomicInteger();
+    private final AtomicInteger hits = new AtomicInteger();
+
+    /**
+     * A test of a bitmap.
+     */
+    private static class Shape {
+        private final String test;
+        private final int parameter;
+        private final int width;
+        private final int height;
+        private final byte[] bits;
+        private final int hash;
+
+        /**
+         * Create a new shape.
+         * @param test The name of the test
+         * @param parameter The parameter of the test
+         * @param width The width of the bitmap
+         * @param height The height of the bitmap
+         * @param bits The packed pixels of the bitmap
+         */
+        private Shape(String test, int parameter, int width, int height, byte[] bits) {
+            this.test = test;
+            this.parameter = parameter;
+            this.width = width;
+            this.height = height;
+            this.bits = bits;
+            hash = (((test.hashCode()*31 + parameter)*31 + width)*31 + height)*31 + Arrays.hashCode(bits);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if(!(object instanceof Shape)) {
+                return false;
+            }
+            Shape shape = (Shape)object;
+            return hash == shape.hash && parameter == shape.parameter && width == shape.width &&
+                    height == shape.height && test.equals(shape.test) && Arrays.equals(bits, shape.bits);
+        }
+    }
+
+    /**
+     * Test a component, or get the outcome of the test of the same shape.
+     * @param test The name of the test
+     * @param symbol The bitmap of the component
+     * @param parameter The parameter the test depends on apart from the bitmap, 0 if none
+     * @param shapeTest The test
+     * @param <T> The type of the outcome
+     * @return The outcome
+     */
+    @SuppressWarnings("unchecked")
+    <T> T test(String test, BufferedImage symbol, int parameter, Function<BufferedImage, T> shapeTest) {
+        lookups.incrementAndGet();
+        // only whole binary images have all of their pixels packed in their buffer
+        if(symbol.getType() != BufferedImage.TYPE_BYTE_BINARY || symbol.getRaster().getParent() != null ||
+                symbol.getColorModel().getPixelSize() != 1) {
+            return shapeTest.apply(symbol);
+        }
+
+        byte[] data = ((DataBufferByte)symbol.getRaster().getDataBuffer()).getData();
+        Object outcome = outcomes.get(new Shape(test, parameter, symbol.getWidth(), symbol.getHeight(), data));
+        if(outcome != null) {
+            hits.incrementAndGet();
+            return (T)outcome;
+        }
+        T newOutcome = shapeTest.apply(symbol);
+        // the pixels are copied in case the image is drawn on later
+        outcomes.putIfAbsent(new Shape(test, parameter, symbol.getWidth(), symbol.getHeight(), data.clone()),
+                newOutcome);
+        return newOutcome;
+    }
+
+    /**
+     * Get the number of tests asked for.
+     * @return The number of lookups
+     */
+    int getLookups() {
+        return lookups.get();
+    }
+
+    /**
+     * Get the number of tests answered with the outcome of the same shape.
+     * @return The number of hits
+     */
+    int getHits() {
+        return hits.get();
+    }
+}
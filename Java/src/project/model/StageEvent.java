@@ -0,0 +1,47 @@
+package project.model;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A Java Flight Recorder event for a stage of image processing. It costs next
+ * to nothing unless a recording with the event enabled is running.
+ */
+@Name("project.model.Stage")
+@Label("Image Processing Stage")
+@Category({"Music Score Recognition", "Stages"})
+@Description("A stage of image processing of a page")
+class StageEvent extends Event {
+    @Label("Stage")
+    int stage;
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Width")
+    int width;
+
+    @Label("Height")
+    int height;
+
+    /**
+     * Commit the event if it's recorded.
+     * @param stage The number of the stage
+     * @param operation The method doing the stage
+     * @param width The width of the image
+     * @param height The height of the image
+     */
+    void report(int stage, String operation, int width, int height) {
+        end();
+        if(shouldCommit()) {
+            this.stage = stage;
+            this.operation = operation;
+            this.width = width;
+            this.height = height;
+            commit();
+        }
+    }
+}
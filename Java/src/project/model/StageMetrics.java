@@ -0,0 +1,196 @@
+package project.model;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The time, the allocations and the counts of what was found of a stage of
+ * image processing.
+ * <p>
+ * The CPU time and the allocated bytes are those of the thread running the
+ * stage, they are -1 if the Java platform doesn't measure them.
+ * </p>
+ */
+public class StageMetrics {
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+    private int stage;
+    private String description;
+    private long wallTime;
+    private long cpuTime;
+    private long allocatedBytes;
+    private Map<String, Long> counts = new LinkedHashMap<>();
+
+    private boolean stopped = false;
+
+    /**
+     * Start measuring a stage on the current thread.
+     * @param stage The number of the stage
+     * @param description The description of the stage
+     */
+    public StageMetrics(int stage, String description) {
+        this.stage = stage;
+        this.description = description;
+        wallTime = -System.nanoTime();
+        cpuTime = currentCpuTime();
+        allocatedBytes = currentAllocatedBytes();
+    }
+
+    /**
+     * Stop measuring the stage, it must be called on the thread the stage was started on.
+     */
+    public void stop() {
+        if(stopped) {
+            return;
+        }
+        stopped = true;
+        wallTime += System.nanoTime();
+        long cpuTimeNow = currentCpuTime();
+        cpuTime = cpuTime < 0 || cpuTimeNow < 0 ? -1 : cpuTimeNow - cpuTime;
+        long allocatedBytesNow = currentAllocatedBytes();
+        allocatedBytes = allocatedBytes < 0 || allocatedBytesNow < 0 ? -1 : allocatedBytesNow - allocatedBytes;
+    }
+
+    /**
+     * Add to a count of the stage.
+     * @param name The name of the count
+     * @param amount The amount added
+     */
+    public void count(String name, long amount) {
+        counts.merge(name, amount, Long::sum);
+    }
+
+    /**
+     * Get the number of the stage.
+     * @return The stage
+     */
+    public int getStage() {
+        return stage;
+    }
+
+    /**
+     * Get the description of the stage.
+     * @return The description
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * Get the wall-clock time of the stage.
+     * @return The time in nanoseconds
+     */
+    public long getWallTime() {
+        return wallTime;
+    }
+
+    /**
+     * Get the CPU time of the stage.
+     * @return The time in nanoseconds, or -1 if not measured
+     */
+    public long getCpuTime() {
+        return cpuTime;
+    }
+
+    /**
+     * Get the bytes allocated by the stage.
+     * @return The bytes, or -1 if not measured
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Get the counts of the stage.
+     * @return The counts by name, in the order they were first counted
+     */
+    public Map<String, Long> getCounts() {
+        return Collections.unmodifiableMap(counts);
+    }
+
+    /**
+     * Get the JSON representation.
+     * @return The JSON object of the stage
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"stage\": ").append(stage)
+                .append(", \"description\": \"").append(escape(description)).append('"')
+                .append(", \"wallTimeNanos\": ").append(wallTime)
+                .append(", \"cpuTimeNanos\": ").append(cpuTime)
+                .append(", \"allocatedBytes\": ").append(allocatedBytes)
+                .append(", \"counts\": {");
+        String separator = "";
+        for(Map.Entry<String, Long> count : counts.entrySet()) {
+            json.append(separator).append('"').append(escape(count.getKey())).append("\": ").append(count.getValue());
+            separator = ", ";
+        }
+        return json.append("}}").toString();
+    }
+
+    /**
+     * Get the JSON report of the stages of a page.
+     * @param name The name of the page
+     * @param stages The metrics of the stages
+     * @return The JSON object of the page
+     */
+    public static String toJson(String name, List<StageMetrics> stages) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"page\": \"").append(escape(name)).append("\",\n  \"stages\": [");
+        String separator = "\n    ";
+        for(StageMetrics metrics : stages) {
+            json.append(separator).append(metrics.toJson());
+            separator = ",\n    ";
+        }
+        return json.append("\n  ]\n}\n").toString();
+    }
+
+    /**
+     * Escape a string for JSON.
+     * @param string The string
+     * @return The escaped string
+     */
+    private static String escape(String string) {
+        StringBuilder escaped = new StringBuilder();
+        for(char c : string.toCharArray()) {
+            if(c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if(c < 0x20) {
+                escaped.append(String.format("\\u%04x", (int)c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * Get the CPU time of the current thread.
+     * @return The time in nanoseconds, or -1 if not supported
+     */
+    private static long currentCpuTime() {
+        if(!threadBean.isCurrentThreadCpuTimeSupported()) {
+            return -1;
+        }
+        return threadBean.getCurrentThreadCpuTime();
+    }
+
+    /**
+     * Get the bytes allocated by the current thread so far.
+     * @return The bytes, or -1 if not supported
+     */
+    private static long currentAllocatedBytes() {
+        if(!(threadBean instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean)threadBean;
+        if(!bean.isThreadAllocatedMemorySupported() || !bean.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
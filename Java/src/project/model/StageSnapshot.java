@@ -0,0 +1,183 @@
+package project.model;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The results of the stages before symbol recognition: the staves, the bar
+ * lines, the vertical lines, the stave space width, the bounding boxes and the
+ * component matrix.
+ * <p>
+ * A snapshot can be written to a compact binary file and read back, so that
+ * symbol recognition can be run again on its own, e.g. with different
+ * parameters, without deskewing, removing lines and labelling the components
+ * again. The component matrix is run-length encoded and the file compressed.
+ * </p>
+ */
+public class StageSnapshot {
+    private static final int magic = 0x4D535253;
+    private static final int version = 1;
+
+    private ArrayList<ArrayList<BoundingBox>> staves;
+    private ArrayList<BoundingBox> barLines;
+    private ArrayList<BoundingBox> verticalLines;
+    private int staveSpaceWidth;
+    private Collection<BoundingBox> boundingBoxes;
+    private LabelMatrix components;
+
+    /**
+     * Create a new snapshot.
+     * @param staves The staves
+     * @param barLines The bar lines
+     * @param verticalLines The vertical lines
+     * @param staveSpaceWidth The average stave space width
+     * @param boundingBoxes The bounding boxes of the components
+     * @param components The component matrix
+     */
+    public StageSnapshot(ArrayList<ArrayList<BoundingBox>> staves, ArrayList<BoundingBox> barLines,
+                         ArrayList<BoundingBox> verticalLines, int staveSpaceWidth,
+                         Collection<BoundingBox> boundingBoxes, LabelMatrix components) {
+        this.staves = staves;
+        this.barLines = barLines;
+        this.verticalLines = verticalLines;
+        this.staveSpaceWidth = staveSpaceWidth;
+        this.boundingBoxes = boundingBoxes;
+        this.components = components;
+    }
+
+    /**
+     * Create a recognizer for the snapshot. It can be called again to recognize
+     * the symbols with other parameters, the snapshot is not changed by recognition.
+     * @return The recognizer
+     */
+    public Recognizer createRecognizer() {
+        return new Recognizer(staves, barLines, verticalLines, staveSpaceWidth, boundingBoxes, components);
+    }
+
+    /**
+     * Get the component matrix.
+     * @return The component matrix
+     */
+    public LabelMatrix getComponents() {
+        return components;
+    }
+
+    /**
+     * Write the snapshot to a file.
+     * @param file The file
+     * @throws IOException if the file cannot be written
+     */
+    public void write(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(file))))) {
+            out.writeInt(magic);
+            out.writeInt(version);
+            out.writeInt(staveSpaceWidth);
+
+            out.writeInt(staves.size());
+            for(ArrayList<BoundingBox> stave : staves) {
+                writeBoundingBoxes(out, stave);
+            }
+            writeBoundingBoxes(out, barLines);
+            writeBoundingBoxes(out, verticalLines);
+            // in the order the recognizer goes through them
+            writeBoundingBoxes(out, boundingBoxes);
+
+            // runs of equal labels in row-major order
+            out.writeInt(components.getWidth());
+            out.writeInt(components.getHeight());
+            int index = 0;
+            while(index < components.size()) {
+                int label = components.get(index);
+                int run = 1;
+                while(index+run < components.size() && components.get(index+run) == label) {
+                    run++;
+                }
+                out.writeInt(run);
+                out.writeInt(label);
+                index += run;
+            }
+        }
+    }
+
+    /**
+     * Read a snapshot from a file.
+     * @param file The file
+     * @return The snapshot
+     * @throws IOException if the file cannot be read or is not a snapshot
+     */
+    public static StageSnapshot read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(file))))) {
+            if(in.readInt() != magic || in.readInt() != version) {
+                throw new IOException("File: \"" + file.getName() + "\" is not a snapshot");
+            }
+            int staveSpaceWidth = in.readInt();
+
+            int noStaves = in.readInt();
+            ArrayList<ArrayList<BoundingBox>> staves = new ArrayList<>();
+            for(int i=0; i<noStaves; i++) {
+                staves.add(readBoundingBoxes(in));
+            }
+            ArrayList<BoundingBox> barLines = readBoundingBoxes(in);
+            ArrayList<BoundingBox> verticalLines = readBoundingBoxes(in);
+            ArrayList<BoundingBox> boundingBoxes = readBoundingBoxes(in);
+
+            int width = in.readInt();
+            int height = in.readInt();
+            LabelMatrix components = new LabelMatrix(width, height);
+            int index = 0;
+            while(index < components.size()) {
+                int run = in.readInt();
+                int label = in.readInt();
+                if(run <= 0 || index+run > components.size()) {
+                    throw new IOException("File: \"" + file.getName() + "\" is corrupted");
+                }
+                if(label != 0) {
+                    for(int i=index; i<index+run; i++) {
+                        components.set(i, label);
+                    }
+                }
+                index += run;
+            }
+
+            return new StageSnapshot(staves, barLines, verticalLines, staveSpaceWidth, boundingBoxes, components);
+        }
+    }
+
+    /**
+     * Write a list of bounding boxes.
+     * @param out The stream
+     * @param boundingBoxes The bounding boxes
+     * @throws IOException if the stream cannot be written
+     */
+    private static void writeBoundingBoxes(DataOutputStream out, Collection<BoundingBox> boundingBoxes)
+            throws IOException {
+        out.writeInt(boundingBoxes.size());
+        for(BoundingBox boundingBox : boundingBoxes) {
+            out.writeInt(boundingBox.xStart);
+            out.writeInt(boundingBox.yStart);
+            out.writeInt(boundingBox.xEnd);
+            out.writeInt(boundingBox.yEnd);
+            out.writeInt(boundingBox.label);
+        }
+    }
+
+    /**
+     * Read a list of bounding boxes.
+     * @param in The stream
+     * @return The bounding boxes
+     * @throws IOException if the stream cannot be read
+     */
+    private static ArrayList<BoundingBox> readBoundingBoxes(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        ArrayList<BoundingBox> boundingBoxes = new ArrayList<>();
+        for(int i=0; i<size; i++) {
+            boundingBoxes.add(new BoundingBox(in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt()));
+        }
+        return boundingBoxes;
+    }
+}
@@ -0,0 +1,173 @@
+package project.model;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the images and projections of the finished stages of image processing.
+ * <p>
+ * How much is kept depends on the retention policy:
+ * </p>
+ * <ul>
+ * <li><code>KEEP_ALL</code> keeps every stage in memory</li>
+ * <li><code>KEEP_REQUIRED</code> keeps only the stages needed by later stages
+ * and discards the rest</li>
+ * <li><code>SPILL_TO_DISK</code> keeps the required stages in memory and writes
+ * the rest to temporary files, reading them back when they are asked for</li>
+ * </ul>
+ */
+public class StageStore {
+    /**
+     * The retention policy.
+     */
+    public enum Retention {
+        KEEP_ALL,
+        KEEP_REQUIRED,
+        SPILL_TO_DISK
+    }
+
+    private Retention retention;
+    private int[] requiredStages;
+
+    private Map<Integer, BufferedImage> images;
+    private Map<Integer, int[]> histograms;
+    private Map<Integer, File> spilledImages;
+
+    // the last image read back from disk, so that repaints don't read it again
+    private int reloadedStage = -1;
+    private BufferedImage reloadedImage;
+
+    /**
+     * Create a new store.
+     * @param retention The retention policy
+     * @param requiredStages The stages needed by later stages
+     */
+    public StageStore(Retention retention, int... requiredStages) {
+        this.retention = retention;
+        this.requiredStages = requiredStages;
+        images = new HashMap<>();
+        histograms = new HashMap<>();
+        spilledImages = new HashMap<>();
+    }
+
+    /**
+     * Get the retention policy.
+     * @return The retention policy
+     */
+    public Retention getRetention() {
+        return retention;
+    }
+
+    /**
+     * Set the retention policy. It applies to the stages stored from now on.
+     * @param retention The retention policy
+     */
+    public void setRetention(Retention retention) {
+        this.retention = retention;
+    }
+
+    /**
+     * Check if a stage is needed by later stages.
+     * @param stage The stage
+     * @return True if the stage is required
+     */
+    public boolean isRequired(int stage) {
+        for(int requiredStage : requiredStages) {
+            if(requiredStage == stage) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Store a finished stage.
+     * @param stage The stage
+     * @param image The image of the stage
+     * @param histogram The horizontal projection of the image
+     */
+    public void put(int stage, BufferedImage image, int[] histogram) {
+        if(retention == Retention.KEEP_ALL || isRequired(stage)) {
+            images.put(stage, image);
+            histograms.put(stage, histogram);
+            return;
+        }
+
+        if(retention == Retention.SPILL_TO_DISK) {
+            try {
+                File file = File.createTempFile("stage" + stage + "-", ".png");
+                file.deleteOnExit();
+                ImageIO.write(image, "png", file);
+                spilledImages.put(stage, file);
+            } catch (IOException e) {
+                // keep it in memory instead
+                e.printStackTrace();
+                images.put(stage, image);
+            }
+            histograms.put(stage, histogram);
+        }
+    }
+
+    /**
+     * Check if a stage can still be displayed.
+     * @param stage The stage
+     * @return True if the image of the stage is kept in memory or on disk
+     */
+    public boolean isAvailable(int stage) {
+        return images.containsKey(stage) || spilledImages.containsKey(stage);
+    }
+
+    /**
+     * Get the image of a stage, reading it back from disk if it was spilled.
+     * @param stage The stage
+     * @return The image, or null if it was not kept
+     */
+    public BufferedImage getImage(int stage) {
+        BufferedImage image = images.get(stage);
+        if(image != null) {
+            return image;
+        }
+
+        File file = spilledImages.get(stage);
+        if(file == null) {
+            return null;
+        }
+        if(reloadedStage != stage) {
+            try {
+                reloadedImage = ImageIO.read(file);
+                reloadedStage = stage;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+        return reloadedImage;
+    }
+
+    /**
+     * Get the horizontal projection of a stage.
+     * @param stage The stage
+     * @return The projection, or null if it was not kept
+     */
+    public int[] getHistogram(int stage) {
+        return histograms.get(stage);
+    }
+
+    /**
+     * Remove all stages and delete the spilled files.
+     */
+    public void clear() {
+        images.clear();
+        histograms.clear();
+        for(File file : spilledImages.values()) {
+            file.delete();
+        }
+        spilledImages.clear();
+        reloadedStage = -1;
+        reloadedImage = null;
+    }
+}
@@ -51,7 +51,7 @@ public class TrainingSet {
         newImageFile = new ImageFile(new File("symbols/quaverRest.png"));
         quaverRest = newImageFile.getBufferedImage(0);
 
-        newImageFile = new ImageFile(new File("symbols/semiquaverRest.png"));
+        newImageFile = new ImageFile(new File("symbols/semiQuaverRest.png"));
         semiquaverRest = newImageFile.getBufferedImage(0);
     }
 
@@ -129,7 +129,7 @@ public class TrainingSet {
 
         for(int i=0; i<image.getWidth(); i++) {
             for(int j=0; j<image.getHeight(); j++) {
-                if(image.getRGB(i, j) == ColorOperations.black()) {
+                if(image.getRGB(i, j) == ColorOperations.BLACK) {
                     blackPixels++;
                 } else {
                     whitePixels++;
@@ -145,9 +145,23 @@ public class TrainingSet {
      * the number of pixels in each cell.
      * @param symbol1 The first symbol
      * @param symbol2NotCropped The second symbol
-     * @return
+     * @return True if the symbols are similar
      */
     private boolean compare(BufferedImage symbol1, BufferedImage symbol2NotCropped) {
+        RecognizerEvent event = new RecognizerEvent();
+        event.begin();
+        boolean similar = compareCells(symbol1, symbol2NotCropped);
+        event.report("TrainingSet.compare", symbol2NotCropped.getWidth(), symbol2NotCropped.getHeight(), similar);
+        return similar;
+    }
+
+    /**
+     * Compare the number of pixels in each cell of the grid of two symbols.
+     * @param symbol1 The first symbol
+     * @param symbol2NotCropped The second symbol
+     * @return True if the symbols are similar
+     */
+    private boolean compareCells(BufferedImage symbol1, BufferedImage symbol2NotCropped) {
         // crop the second symbol so that the symbols are in proportion
         BufferedImage symbol2 = symbol2NotCropped;
         if((double)(symbol2NotCropped.getWidth())/symbol2NotCropped.getHeight() > (double)(symbol1.getWidth())/symbol1.getHeight()) {
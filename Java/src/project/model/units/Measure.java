@@ -10,6 +10,8 @@ public class Measure {
     private String attributes;
     private String XML;
     private boolean empty;
+    private int noNotes;
+    private boolean newSystem;
 
     /**
      * Create a measure.
@@ -22,6 +24,14 @@ public class Measure {
         empty = true;
     }
 
+    /**
+     * Number the measure again, e.g. when the measures of several systems are merged.
+     * @param number The measure number
+     */
+    public void setNumber(int number) {
+        this.number = number;
+    }
+
     /**
      * Add attributes to the measure.
      * @param fifths The parameter related to the key signature
@@ -74,6 +84,7 @@ public class Measure {
      */
     public void addNote(Note note) {
         empty = false;
+        noNotes++;
         XML += "\r\n\t\t\t" + "<note>";
 
         if(note.isChord()) {
@@ -152,10 +163,11 @@ public class Measure {
     }
 
     /**
-     * Make this measure the first one in the system.
+     * Make this measure the first one in the system. The new system is printed before
+     * the notes, even if they were added before.
      */
     public void setNewSystem() {
-        XML += "\r\n\t\t\t" + "<print new-system=\"yes\"/>";
+        newSystem = true;
     }
 
     /**
@@ -182,7 +194,7 @@ public class Measure {
      */
     public String getXML() {
         return "\r\n\r\n\t\t" + "<measure number=\"" + number + "\">" +
-                attributes + XML +
+                attributes + (newSystem ? "\r\n\t\t\t" + "<print new-system=\"yes\"/>" : "") + XML +
                 "\r\n\t\t" + "</measure>";
     }
 
@@ -193,4 +205,12 @@ public class Measure {
     public boolean isEmpty() {
         return empty;
     }
+
+    /**
+     * Get the number of notes and rests in the measure.
+     * @return The number of notes
+     */
+    public int getNumberOfNotes() {
+        return noNotes;
+    }
 }
@@ -1,11 +1,17 @@
 package project.utils;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
 import javax.imageio.ImageReader;
 import javax.imageio.stream.ImageInputStream;
+import java.awt.Rectangle;
 import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorConvertOp;
+import java.awt.image.DataBufferByte;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
 import java.util.Iterator;
@@ -15,6 +21,24 @@ import java.util.Iterator;
  */
 public class ImageFile
 {
+	/**
+	 * How the images are decoded
+	 */
+	public enum ReadMode
+	{
+		/**
+		 * Every image is converted to TYPE_INT_RGB
+		 */
+		RGB,
+		/**
+		 * 1-bit images are kept as packed TYPE_BYTE_BINARY images, other
+		 * images of up to 8 bits per pixel become TYPE_BYTE_GRAY images of
+		 * the grey values of their pixels and colour images are converted to
+		 * TYPE_INT_RGB
+		 */
+		GRAY
+	}
+
 	private ImageReader	ir;
 	private int			numImages;
 	private File		file;
@@ -132,6 +156,40 @@ public class ImageFile
 		return numImages;
 	}
 
+	/**
+	 * Get the width of an image without reading it
+	 *
+	 * @param imageNo
+	 *            the index of the image: in the range
+	 *            <code>[0..getNumImages()-1]</code>
+	 * @return the width in pixels
+	 * @throws IOException
+	 *             if the <code>project.utils.ImageFile</code> has already been
+	 *             disposed of or if there is an error in reading the file
+	 */
+	public int getWidth(int imageNo) throws IOException
+	{
+		checkImageNo(imageNo);
+		return ir.getWidth(imageNo);
+	}
+
+	/**
+	 * Get the height of an image without reading it
+	 *
+	 * @param imageNo
+	 *            the index of the image: in the range
+	 *            <code>[0..getNumImages()-1]</code>
+	 * @return the height in pixels
+	 * @throws IOException
+	 *             if the <code>project.utils.ImageFile</code> has already been
+	 *             disposed of or if there is an error in reading the file
+	 */
+	public int getHeight(int imageNo) throws IOException
+	{
+		checkImageNo(imageNo);
+		return ir.getHeight(imageNo);
+	}
+
 	/**
 	 * Reads an image from an project.utils
 	 *
@@ -145,20 +203,40 @@ public class ImageFile
 	 */
 	public BufferedImage getBufferedImage(int imageNo) throws IOException
 	{
-		if (ir == null)
-			throw new IOException(
-					"Attempt to read image when image reader has already been disposed of");
-		if (imageNo < 0 || imageNo >= numImages)
-		{
-			throw new IndexOutOfBoundsException("Tried to read image number "
-					+ imageNo + " from image file " + file + " which contains "
-					+ (numImages == 0 ? "no images"
-							: numImages == 1 ? "only image 0"
-									: "images 0.." + (numImages - 1)));
-		}
+		return getBufferedImage(imageNo, ReadMode.RGB);
+	}
+
+	/**
+	 * Reads an image from an project.utils, converting it as little as the
+	 * read mode allows
+	 *
+	 * @param imageNo
+	 *            the index of the image to read: in the range
+	 *            <code>[0..getNumImages()-1]</code>
+	 * @param mode
+	 *            how the image is converted
+	 * @return the requested image
+	 * @throws IOException
+	 *             if the <code>project.utils.ImageFile</code> has already been
+	 *             disposed of or if there is an error in reading the image
+	 */
+	public BufferedImage getBufferedImage(int imageNo, ReadMode mode)
+			throws IOException
+	{
+		checkImageNo(imageNo);
 
 		BufferedImage bi = ir.read(imageNo);
 
+		if (mode == ReadMode.GRAY)
+		{
+			// a packed binary image is already as small as it gets
+			if (bi.getType() == BufferedImage.TYPE_BYTE_BINARY
+					&& bi.getColorModel().getPixelSize() == 1)
+				return bi;
+			if (isGrayConvertible(bi))
+				return convertToGray(bi);
+		}
+
 		// In case the image is not in the standard Java colour space or the
 		// standard Java
 		// encoding, translate it. This is typically only necessary if you want
@@ -170,6 +248,108 @@ public class ImageFile
 
 	}
 
+	/**
+	 * Reads an image from an project.utils as a packed TYPE_BYTE_BINARY image,
+	 * decoding one band of rows at a time and binarizing it into the binary
+	 * image straight away, so that a page too big to be decoded in full can
+	 * be read with the memory of one band and of the binary image. A pixel is
+	 * black if its grey value, as defined in <code>convertToGray</code>, is
+	 * below the threshold. Some readers (e.g. PNG or JPEG) decode the rows
+	 * above a band again for every band.
+	 *
+	 * @param imageNo
+	 *            the index of the image to read: in the range
+	 *            <code>[0..getNumImages()-1]</code>
+	 * @param threshold
+	 *            the grey value from which pixels are white
+	 * @param bandHeight
+	 *            the number of rows decoded at a time
+	 * @return the binary image
+	 * @throws IOException
+	 *             if the <code>project.utils.ImageFile</code> has already been
+	 *             disposed of or if there is an error in reading the image
+	 */
+	public BufferedImage getBinaryImage(int imageNo, int threshold,
+			int bandHeight) throws IOException
+	{
+		checkImageNo(imageNo);
+		int width = ir.getWidth(imageNo);
+		int height = ir.getHeight(imageNo);
+
+		BufferedImage binaryImage = new BufferedImage(width, height,
+				BufferedImage.TYPE_BYTE_BINARY);
+		byte[] bits = ((DataBufferByte) binaryImage.getRaster()
+				.getDataBuffer()).getData();
+		int scanlineStride = ((MultiPixelPackedSampleModel) binaryImage
+				.getSampleModel()).getScanlineStride();
+
+		ImageReadParam param = ir.getDefaultReadParam();
+		int[] grayValues = null;
+		int[] row = new int[width];
+		for (int bandY = 0; bandY < height; bandY += bandHeight)
+		{
+			int rows = Math.min(bandHeight, height - bandY);
+			param.setSourceRegion(new Rectangle(0, bandY, width, rows));
+			BufferedImage band = ir.read(imageNo, param);
+
+			// the bands all have the colour model of the image
+			boolean gray = isGrayConvertible(band);
+			if (gray && grayValues == null)
+				grayValues = getGrayValues(band);
+			if (!gray)
+				band = convertToIntRGB(band);
+			Raster raster = band.getRaster();
+
+			for (int y = 0; y < rows; y++)
+			{
+				if (gray)
+				{
+					raster.getSamples(0, y, width, 1, 0, row);
+					for (int x = 0; x < width; x++)
+						row[x] = grayValues[row[x]];
+				}
+				else
+				{
+					band.getRGB(0, y, width, 1, row, 0, width);
+					for (int x = 0; x < width; x++)
+						row[x] = getGrayValue(row[x]);
+				}
+
+				// the bits are 0 for black and 1 for white, from the leftmost
+				// pixel
+				int offset = (bandY + y) * scanlineStride;
+				for (int x = 0; x < width; x++)
+					if (row[x] >= threshold)
+						bits[offset + (x >> 3)] |= 0x80 >>> (x & 7);
+			}
+		}
+		return binaryImage;
+	}
+
+	/**
+	 * Check that an image can be read
+	 *
+	 * @param imageNo
+	 *            the index of the image
+	 * @throws IOException
+	 *             if the <code>project.utils.ImageFile</code> has already been
+	 *             disposed of
+	 */
+	private void checkImageNo(int imageNo) throws IOException
+	{
+		if (ir == null)
+			throw new IOException(
+					"Attempt to read image when image reader has already been disposed of");
+		if (imageNo < 0 || imageNo >= numImages)
+		{
+			throw new IndexOutOfBoundsException("Tried to read image number "
+					+ imageNo + " from image file " + file + " which contains "
+					+ (numImages == 0 ? "no images"
+							: numImages == 1 ? "only image 0"
+									: "images 0.." + (numImages - 1)));
+		}
+	}
+
 	/**
 	 * Utility method to return a TYPE_INT_RGB RGB version of a buffered image
 	 *
@@ -191,4 +371,130 @@ public class ImageFile
 		cco.filter(bi, argbImage);
 		return argbImage;
 	}
+
+	/**
+	 * Check if an image can be converted with <code>convertToGray</code>,
+	 * i.e. if it has a single band of up to 8 bits per pixel
+	 *
+	 * @param bi
+	 *            the input image
+	 * @return true if it can be converted
+	 */
+	public static boolean isGrayConvertible(BufferedImage bi)
+	{
+		return bi.getSampleModel().getNumBands() == 1
+				&& bi.getSampleModel().getSampleSize(0) <= 8;
+	}
+
+	/**
+	 * Utility method to return the grey values of the possible pixel values
+	 * of an image with a single band of up to 8 bits per pixel, as defined in
+	 * <code>convertToGray</code>
+	 *
+	 * @param bi
+	 *            the input image
+	 * @return the grey value of every pixel value
+	 */
+	public static int[] getGrayValues(BufferedImage bi)
+	{
+		if (!isGrayConvertible(bi))
+			throw new IllegalArgumentException(
+					"Only images with a single band of up to 8 bits can be converted to grey");
+
+		// convert every possible pixel value the same way as the whole image
+		int[] values = new int[1 << bi.getSampleModel().getSampleSize(0)];
+		WritableRaster ramp = bi.getColorModel()
+				.createCompatibleWritableRaster(values.length, 1);
+		for (int i = 0; i < values.length; i++)
+			ramp.setSample(i, 0, 0, i);
+		BufferedImage rampRGB = convertToIntRGB(new BufferedImage(
+				bi.getColorModel(), ramp, bi.isAlphaPremultiplied(), null));
+		for (int i = 0; i < values.length; i++)
+			values[i] = getGrayValue(rampRGB.getRGB(i, 0));
+		return values;
+	}
+
+	/**
+	 * Utility method to read the grey values of a part of a row of an image,
+	 * as defined in <code>convertToGray</code>
+	 *
+	 * @param bi
+	 *            the input image
+	 * @param grayValues
+	 *            the grey value of every pixel value, as returned by
+	 *            <code>getGrayValues</code>, or null to read the samples of a
+	 *            TYPE_BYTE_GRAY image or the colours of any other image
+	 * @param x
+	 *            the first column
+	 * @param y
+	 *            the row
+	 * @param width
+	 *            the number of columns
+	 * @param row
+	 *            the array the grey values are read into
+	 */
+	public static void readGrayRow(BufferedImage bi, int[] grayValues, int x,
+			int y, int width, int[] row)
+	{
+		if (grayValues == null && bi.getType() != BufferedImage.TYPE_BYTE_GRAY)
+		{
+			bi.getRGB(x, y, width, 1, row, 0, width);
+			for (int i = 0; i < width; i++)
+				row[i] = getGrayValue(row[i]);
+		}
+		else
+		{
+			bi.getRaster().getSamples(x, y, width, 1, 0, row);
+			if (grayValues != null)
+				for (int i = 0; i < width; i++)
+					row[i] = grayValues[row[i]];
+		}
+	}
+
+	/**
+	 * Get the grey value of a pixel: the average of its red, green and blue
+	 * values, or 255 if it's not opaque
+	 *
+	 * @param rgb
+	 *            the rgb value of the pixel
+	 * @return the grey value
+	 */
+	private static int getGrayValue(int rgb)
+	{
+		if ((rgb >>> 24) != 255)
+			return 255;
+		return (((rgb >> 16) & 0xFF) + ((rgb >> 8) & 0xFF) + (rgb & 0xFF))
+				/ 3;
+	}
+
+	/**
+	 * Utility method to return a TYPE_BYTE_GRAY version of an image with a
+	 * single band of up to 8 bits per pixel. The grey value of a pixel is the
+	 * average of the red, green and blue values of the pixel in the
+	 * TYPE_INT_RGB version of the image, or 255 if the pixel is not opaque.
+	 * Only the possible pixel values are colour converted, the pixels are
+	 * then looked up.
+	 *
+	 * @param bi
+	 *            the input image
+	 * @return the corresponding TYPE_BYTE_GRAY version of the image
+	 */
+	public static BufferedImage convertToGray(BufferedImage bi)
+	{
+		int[] values = getGrayValues(bi);
+
+		BufferedImage grayImage = new BufferedImage(bi.getWidth(),
+				bi.getHeight(), BufferedImage.TYPE_BYTE_GRAY);
+		Raster raster = bi.getRaster();
+		WritableRaster grayRaster = grayImage.getRaster();
+		int[] row = new int[bi.getWidth()];
+		for (int y = 0; y < bi.getHeight(); y++)
+		{
+			raster.getSamples(0, y, row.length, 1, 0, row);
+			for (int x = 0; x < row.length; x++)
+				row[x] = values[row[x]];
+			grayRaster.setSamples(0, y, row.length, 1, 0, row);
+		}
+		return grayImage;
+	}
 }
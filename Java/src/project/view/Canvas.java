@@ -11,7 +11,9 @@ import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 class Canvas extends JPanel
 {
@@ -25,6 +27,28 @@ class Canvas extends JPanel
 
 	private CanvasMouseListener	mouseListener;
 
+	// the projection strip drawn next to the image, and what it was drawn for
+	private BufferedImage		histogramImage;
+	private int[]				histogramImageProjection;
+	private int					histogramImageStage			= -1;
+	private int					histogramImageStageDisplayed	= -1;
+	private int					histogramImageWidth;
+
+	// tile pyramids of the most recently displayed images
+	private static final int	pyramidCacheSize	= 3;
+	private Map<BufferedImage, TilePyramid>	pyramids	= new LinkedHashMap<BufferedImage, TilePyramid>(
+			4, 0.75f, true)
+	{
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(
+				Map.Entry<BufferedImage, TilePyramid> eldest)
+		{
+			return size() > pyramidCacheSize;
+		}
+	};
+
 	/**
 	 * The default constructor should NEVER be called. It has been made private
 	 * so that no other class can create a Canvas except by initialising it
@@ -81,8 +105,9 @@ class Canvas extends JPanel
 
 			int histogramWidth = 100;
 
-			// Draw the display image on the full size canvas
-			g2.drawImage(image, histogramWidth, 0, null);
+			// Draw the display image on the full size canvas, only the
+			// visible tiles at the resolution nearest to the scale
+			getPyramid(image).paint(g2, histogramWidth, 0, model.getScale());
 
 			if (!rects.isEmpty())
 			{
@@ -99,22 +124,78 @@ class Canvas extends JPanel
 			// paint the intermediate images
 			mouseListener.paint(g);
 
-			BufferedImage histogramImage = new BufferedImage(histogramWidth+1, image.getHeight(), BufferedImage.TYPE_BYTE_BINARY);
-			int[] histogram = model.getHistogram();
-			for(int i=0; i<image.getHeight(); i++) {
-				for(int j=0; j<histogramWidth; j++) {
-					int value = 0;
-					if(j >= histogram[i] * histogramWidth / image.getWidth()) {
-						value = 255;
-					}
-					histogramImage.setRGB(j, i, (value<<16) | (value<<8) | value);
-				}
-			}
-			for(int i=0; i<image.getHeight(); i++) {
-				histogramImage.setRGB(histogramWidth, i, (0<<16) | (0<<8) | 0);
+			g2.drawImage(getHistogramImage(image, histogramWidth), 0, 0, null);
+		}
+	}
+
+	/**
+	 * Get the image of the horizontal projection of the displayed stage. It is
+	 * only drawn again when the stage, the displayed stage or the width
+	 * changes.
+	 *
+	 * @param image
+	 *            The displayed image
+	 * @param histogramWidth
+	 *            The width of the projection strip
+	 * @return The projection image
+	 */
+	private BufferedImage getHistogramImage(BufferedImage image,
+			int histogramWidth)
+	{
+		int[] histogram = model.getHistogram();
+		if (histogramImage != null && histogram == histogramImageProjection
+				&& model.getStage() == histogramImageStage
+				&& model.getStageDisplayed() == histogramImageStageDisplayed
+				&& histogramWidth == histogramImageWidth)
+			return histogramImage;
+
+		histogramImage = new BufferedImage(histogramWidth + 1,
+				image.getHeight(), BufferedImage.TYPE_BYTE_BINARY);
+		Graphics2D g2 = histogramImage.createGraphics();
+		g2.setColor(Color.WHITE);
+		g2.fillRect(0, 0, histogramWidth, image.getHeight());
+		g2.setColor(Color.BLACK);
+
+		// draw rows of the same length as one rectangle
+		int spanStart = 0;
+		for (int i = 1; i <= image.getHeight(); i++)
+		{
+			int spanLength = Math.min(histogramWidth,
+					histogram[spanStart] * histogramWidth / image.getWidth());
+			if (i == image.getHeight() || Math.min(histogramWidth,
+					histogram[i] * histogramWidth / image.getWidth()) != spanLength)
+			{
+				g2.fillRect(0, spanStart, spanLength, i - spanStart);
+				spanStart = i;
 			}
-			g2.drawImage(histogramImage, 0, 0, null);
 		}
+		g2.fillRect(histogramWidth, 0, 1, image.getHeight());
+		g2.dispose();
+
+		histogramImageProjection = histogram;
+		histogramImageStage = model.getStage();
+		histogramImageStageDisplayed = model.getStageDisplayed();
+		histogramImageWidth = histogramWidth;
+		return histogramImage;
+	}
+
+	/**
+	 * Get the tile pyramid of an image, making it if the image was not
+	 * displayed recently.
+	 *
+	 * @param image
+	 *            The image to be displayed
+	 * @return The tile pyramid
+	 */
+	private TilePyramid getPyramid(BufferedImage image)
+	{
+		TilePyramid pyramid = pyramids.get(image);
+		if (pyramid == null)
+		{
+			pyramid = new TilePyramid(image);
+			pyramids.put(image, pyramid);
+		}
+		return pyramid;
 	}
 
 	/**
@@ -0,0 +1,182 @@
+package project.view;
+
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.util.ArrayList;
+
+/**
+ * A multi-resolution pyramid of an image split into tiles, so that painting
+ * only draws the tiles that are visible, at the resolution nearest to the
+ * zoom level.
+ * <p>
+ * Level 0 is the image itself, every next level is half the size of the
+ * previous one. The levels are made when they are first needed.
+ * </p>
+ */
+class TilePyramid
+{
+	private static final int	tileSize	= 512;
+
+	private BufferedImage		image;
+	private ArrayList<BufferedImage>		levelImages	= new ArrayList<>();
+	private ArrayList<BufferedImage[][]>	levelTiles	= new ArrayList<>();
+
+	/**
+	 * Create a pyramid for an image.
+	 *
+	 * @param image
+	 *            The full resolution image
+	 */
+	public TilePyramid(BufferedImage image)
+	{
+		this.image = image;
+		levelImages.add(image);
+		levelTiles.add(split(image));
+	}
+
+	/**
+	 * Get the full resolution image.
+	 *
+	 * @return The image
+	 */
+	public BufferedImage getImage()
+	{
+		return image;
+	}
+
+	/**
+	 * Paint the tiles that intersect the clip of the graphics context.
+	 *
+	 * @param g2
+	 *            The graphics context, already scaled by <code>scale</code>
+	 * @param x
+	 *            The x coordinate of the image in the graphics context
+	 * @param y
+	 *            The y coordinate of the image in the graphics context
+	 * @param scale
+	 *            The scale the image is displayed at
+	 */
+	public void paint(Graphics2D g2, int x, int y, double scale)
+	{
+		// the smallest level that still has at least one pixel for each screen pixel
+		int level = 0;
+		while ((1 << (level + 1)) * scale <= 1.0
+				&& (image.getWidth() >> (level + 1)) > 0
+				&& (image.getHeight() >> (level + 1)) > 0)
+			level++;
+		BufferedImage[][] tiles = getLevel(level);
+		int factor = 1 << level;
+		int tileExtent = tileSize * factor;
+
+		Rectangle clip = g2.getClipBounds();
+		if (clip == null)
+			clip = new Rectangle(x, y, image.getWidth(), image.getHeight());
+
+		int firstColumn = Math.max(0, (clip.x - x) / tileExtent);
+		int lastColumn = Math.min(tiles.length - 1,
+				(clip.x + clip.width - x) / tileExtent);
+		int firstRow = Math.max(0, (clip.y - y) / tileExtent);
+		int lastRow = Math.min(tiles[0].length - 1,
+				(clip.y + clip.height - y) / tileExtent);
+
+		for (int column = firstColumn; column <= lastColumn; column++)
+		{
+			for (int row = firstRow; row <= lastRow; row++)
+			{
+				BufferedImage tile = tiles[column][row];
+				int dx = x + column * tileExtent;
+				int dy = y + row * tileExtent;
+				if (level == 0)
+				{
+					g2.drawImage(tile, dx, dy, null);
+				}
+				else
+				{
+					// the last tiles may cover less than a whole tile of the image
+					int dWidth = Math.min(tile.getWidth() * factor,
+							image.getWidth() - column * tileExtent);
+					int dHeight = Math.min(tile.getHeight() * factor,
+							image.getHeight() - row * tileExtent);
+					g2.drawImage(tile, dx, dy, dx + dWidth, dy + dHeight, 0, 0,
+							tile.getWidth(), tile.getHeight(), null);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the tiles of a level, making the missing levels.
+	 *
+	 * @param level
+	 *            The level
+	 * @return The tiles, indexed by column and row
+	 */
+	private BufferedImage[][] getLevel(int level)
+	{
+		while (levelTiles.size() <= level)
+		{
+			BufferedImage halved = halve(
+					levelImages.get(levelImages.size() - 1));
+			levelImages.add(halved);
+			levelTiles.add(split(halved));
+		}
+		return levelTiles.get(level);
+	}
+
+	/**
+	 * Make an image half the size of the given one. Binary and grey images
+	 * become grey so that thin lines stay visible.
+	 *
+	 * @param source
+	 *            The image
+	 * @return The image scaled down by 2
+	 */
+	private static BufferedImage halve(BufferedImage source)
+	{
+		boolean grey = source.getType() == BufferedImage.TYPE_BYTE_GRAY
+				|| (source.getColorModel() instanceof IndexColorModel
+						&& ((IndexColorModel) source.getColorModel())
+								.getMapSize() == 2);
+		int type = grey ? BufferedImage.TYPE_BYTE_GRAY
+				: BufferedImage.TYPE_INT_RGB;
+		BufferedImage halved = new BufferedImage(
+				Math.max(1, source.getWidth() / 2),
+				Math.max(1, source.getHeight() / 2), type);
+		Graphics2D g2 = halved.createGraphics();
+		g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+				RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g2.drawImage(source, 0, 0, halved.getWidth(), halved.getHeight(),
+				null);
+		g2.dispose();
+		return halved;
+	}
+
+	/**
+	 * Split an image into tiles sharing its raster.
+	 *
+	 * @param levelImage
+	 *            The image
+	 * @return The tiles, indexed by column and row
+	 */
+	private static BufferedImage[][] split(BufferedImage levelImage)
+	{
+		int columns = (levelImage.getWidth() + tileSize - 1) / tileSize;
+		int rows = (levelImage.getHeight() + tileSize - 1) / tileSize;
+		BufferedImage[][] tiles = new BufferedImage[columns][rows];
+		for (int column = 0; column < columns; column++)
+		{
+			for (int row = 0; row < rows; row++)
+			{
+				int x = column * tileSize;
+				int y = row * tileSize;
+				tiles[column][row] = levelImage.getSubimage(x, y,
+						Math.min(tileSize, levelImage.getWidth() - x),
+						Math.min(tileSize, levelImage.getHeight() - y));
+			}
+		}
+		return tiles;
+	}
+}
@@ -45,7 +45,7 @@ public class View extends JFrame
 
 		final AbstractAction exitAction = new ExitAction(this, controller);
 		AbstractAction openAction = new OpenAction(this, controller);
-		AbstractAction longRunningAction = new LongRunningAction(this,
+		LongRunningAction longRunningAction = new LongRunningAction(this,
 				controller);
 		AbstractAction zoomInAction = new ZoomInAction(this,
 				controller);
@@ -57,6 +57,8 @@ public class View extends JFrame
 				controller);
 		AbstractAction toggleLayersAction = new ToggleLayersAction(this,
 				controller);
+		longRunningAction.setConflictingActions(openAction, previousAction,
+				nextAction, toggleLayersAction);
 
 		setDefaultCloseOperation(DO_NOTHING_ON_CLOSE);
 		addWindowListener(new WindowAdapter()
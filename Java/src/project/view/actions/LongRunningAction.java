@@ -10,10 +10,10 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * This is a model for an action that triggers a long running operation in
@@ -39,6 +39,8 @@ public class LongRunningAction extends AbstractAction
 	private static final long	serialVersionUID	= -5547257080295928486L;
 	private View				view;
 	private Controller			controller;
+	// the actions that must wait for the stage, e.g. opening another image
+	private Action[]			conflictingActions	= new Action[0];
 
 	{
 		putValue(NAME, "Process the image...");
@@ -54,12 +56,35 @@ public class LongRunningAction extends AbstractAction
 		this.controller = controller;
 	}
 
+	/**
+	 * Set the actions disabled, as this action is, while a stage is running.
+	 * @param conflictingActions The actions
+	 */
+	public void setConflictingActions(Action... conflictingActions)
+	{
+		this.conflictingActions = conflictingActions;
+	}
+
+	/**
+	 * Enable or disable this action and the conflicting ones.
+	 * @param enabled Whether to enable the actions
+	 */
+	private void setActionsEnabled(boolean enabled)
+	{
+		this.setEnabled(enabled);
+		for (Action action : conflictingActions)
+		{
+			action.setEnabled(enabled);
+		}
+	}
+
 	public void actionPerformed(ActionEvent e)
 	{
 		JDialog dialog = new JDialog(view, "Working ...");
 		JProgressBar progressBar = new JProgressBar(0, 100);
 
-		final LongOperation longOperation = new LongOperation();
+		final LongOperation longOperation = new LongOperation(dialog,
+				progressBar);
 
 		JLabel label = new JLabel("Progress: ");
 		progressBar.setPreferredSize(new Dimension(175, 20));
@@ -68,7 +93,7 @@ public class LongRunningAction extends AbstractAction
 		progressBar.setValue(0);
 		progressBar.setIndeterminate(true);
 		longOperation.addPropertyChangeListener(
-				new LongOpPropertyChangeListener(dialog, progressBar));
+				new LongOpPropertyChangeListener(progressBar));
 
 		JPanel centerPanel = new JPanel();
 		centerPanel.add(label);
@@ -76,7 +101,7 @@ public class LongRunningAction extends AbstractAction
 
 		dialog.getContentPane().add(centerPanel, BorderLayout.CENTER);
 
-		JButton button = new JButton("Cancel");
+		final JButton button = new JButton("Cancel");
 		button.setActionCommand("cancel");
 		button.addActionListener(new ActionListener()
 		{
@@ -84,7 +109,12 @@ public class LongRunningAction extends AbstractAction
 			{
 				if (evt.getActionCommand().equals("cancel"))
 				{
+					// the stage only stops the next time it reports its
+					// progress, the dialog stays until then
 					longOperation.cancel(true);
+					button.setEnabled(false);
+					progressBar.setIndeterminate(true);
+					progressBar.setString("Cancelling");
 				}
 			}
 		});
@@ -109,10 +139,10 @@ public class LongRunningAction extends AbstractAction
 		// uncomment to make modal:
 		// dialog.setModal(true);
 
-		// uncomment the following line if you are using a non-modal dialog and
-		// want
-		// to disallow multiple different parallel executions of this action
-		// this.setEnabled(false);
+		// the stages of image processing follow each other, so disallow
+		// running this action again, or opening or browsing another image,
+		// until the current stage has stopped
+		setActionsEnabled(false);
 
 		dialog.pack();
 		longOperation.execute();
@@ -120,20 +150,17 @@ public class LongRunningAction extends AbstractAction
 	}
 
 	/**
-	 * This listener class handles updating the progress bar for the operation
-	 * as well as cleaning up and processing partial and final results. An
-	 * object of this class should be added to the SwingWorker class that
-	 * handles the operation
+	 * This listener class handles updating the progress bar for the operation.
+	 * An object of this class should be added to the SwingWorker class that
+	 * handles the operation. The dialog is not closed when the worker is done,
+	 * as a cancelled worker is done before its stage has stopped
 	 */
 	private class LongOpPropertyChangeListener implements PropertyChangeListener
 	{
-		private JDialog			dialog;
 		private JProgressBar	progressBar;
 
-		public LongOpPropertyChangeListener(JDialog dialog,
-				JProgressBar progressBar)
+		public LongOpPropertyChangeListener(JProgressBar progressBar)
 		{
-			this.dialog = dialog;
 			this.progressBar = progressBar;
 		}
 
@@ -152,10 +179,6 @@ public class LongRunningAction extends AbstractAction
 				{
 					// replace with something appropriate
 					System.out.println("Long Operation Done");
-
-					dialog.setVisible(false);
-					dialog.dispose();
-					LongRunningAction.this.setEnabled(true);
 				}
 				else if (evt.getNewValue() == SwingWorker.StateValue.PENDING)
 					// replace with something appropriate
@@ -173,104 +196,111 @@ public class LongRunningAction extends AbstractAction
 	}
 
 	/**
-	 * The SwingWorker class to handle the operation. The first generic type
-	 * parameter specifies the type of the final result. The second specifies
-	 * the element type of partial results: partial results will be a List
-	 * (actually ArrayList) of those element types.
+	 * The SwingWorker class to handle the operation. It runs the next stage of
+	 * image processing and publishes the description of the work being done
+	 * as partial results, the percentage done is set as its progress. The
+	 * dialog is closed and the actions enabled again once the stage has
+	 * stopped, rather than when the worker is done.
 	 */
-	class LongOperation extends SwingWorker<Integer, Integer>
+	class LongOperation extends SwingWorker<Void, String>
 	{
+		private JDialog			dialog;
+		private JProgressBar	progressBar;
+		// set by whichever of doInBackground and done comes first, so that
+		// the one that ends the operation is known
+		private AtomicBoolean	started	= new AtomicBoolean();
+
+		public LongOperation(JDialog dialog, JProgressBar progressBar)
+		{
+			this.dialog = dialog;
+			this.progressBar = progressBar;
+		}
+
+		/**
+		 * Close the dialog and enable the actions again. Runs in the EDT.
+		 */
+		private void stopped()
+		{
+			dialog.setVisible(false);
+			dialog.dispose();
+			setActionsEnabled(true);
+		}
 
 		@Override
-		protected Integer doInBackground() throws Exception
+		protected Void doInBackground() throws Exception
 		{
 			// NOTE: this method runs in a different thread to the Swing Event
-			// Dispatch
-			// Thread (EDT) hence MUST NOT directly interact with any swing
-			// component.
-			// Thus, for example, no direct updating of the JProgressBar.
-
-			controller.processImage();
-
-			List<Integer> partialResults = new ArrayList<Integer>();
-			Integer[] result = { 0 };
-			int percentDone;
-			while ((percentDone = controller.executeLongOpStep(result,
-					partialResults)) < 100)
-			{
-				if (isCancelled())
-				{
-					// might need to call something in the controller as well to
-					// clean up
-					return 0;
-				}
-				// can't do the following because we are not running in the EDT:
-				// progressBar.setValue(percentageDone);
-				// Instead set the progress property and leave Swing's
-				// propertyChangeListener to notice the change.
-				setProgress(percentDone);
+			// Dispatch Thread (EDT) hence MUST NOT directly interact with any
+			// swing component. Thus, for example, no direct updating of the
+			// JProgressBar: set the progress property and leave Swing's
+			// propertyChangeListener to notice the change.
 
-				if (!partialResults.isEmpty())
-				{
-					publish(partialResults
-							.toArray(new Integer[partialResults.size()]));
-					partialResults.clear();
-				}
+			// a worker cancelled before it started never runs its stage
+			if (!started.compareAndSet(false, true))
+			{
+				return null;
+			}
 
+			// cancelling interrupts this thread, the stage notices it the
+			// next time it reports its progress and stops
+			try
+			{
+				controller.processImage((task, done, total) -> {
+					setProgress((int) (100L * done / total));
+					publish(task);
+				});
 			}
-			// only get to here on successful completion, which means
-			return result[0];
+			finally
+			{
+				SwingUtilities.invokeLater(this::stopped);
+			}
+			return null;
 		}
 
 		@Override
-		protected void process(List<Integer> chunks)
+		protected void process(List<String> chunks)
 		{
 			// This process runs in the EDT, so it CAN update the view and
-			// interact with
-			// Swing Components: replace with something appropriate
-			System.err.println("process: " + chunks.toString());
+			// interact with Swing Components.
+			if (!isCancelled())
+			{
+				progressBar.setString(chunks.get(chunks.size() - 1));
+			}
 		}
 
 		@Override
 		protected void done()
 		{
 			// This process runs in the EDT, so it CAN update the view and
-			// interact with
-			// Swing Components.
+			// interact with Swing Components.
+
+			// a cancelled worker may be done before its stage has stopped,
+			// the stage then ends the operation itself
+			if (started.compareAndSet(false, true))
+			{
+				stopped();
+			}
 
 			try
 			{
-				// Even if the operation does not produce any result, you should
-				// still call
-				// get() to ensure that any exceptions from the long running
-				// operation are
-				// handled properly
-
-				// replace with something appropriate
-				System.err.println(get());
+				// Even if the operation does not produce any result, still
+				// call get() to ensure that any exceptions from the long
+				// running operation are handled properly
+				get();
 			}
 			catch (CancellationException e)
 			{
-				// replace with something appropriate
-				System.err.println("Cancellation Exception");
-
+				// the model stays at the current stage
+				System.err.println("Stage cancelled");
 			}
 			catch (InterruptedException e)
 			{
-				// replace with something appropriate
 				System.err.println("Interrupted Exception: " + e.getMessage());
 			}
 			catch (ExecutionException e)
 			{
-				// replace with something appropriate
-				//System.err.println("Execution Exception: " + e.getMessage());
 				e.printStackTrace();
 			}
-			// finally
-			// {
-			// // This could go here, but better in the action listener
-			// // LongRunningAction.this.setEnabled(true);
-			// }
 		}
 
 	}